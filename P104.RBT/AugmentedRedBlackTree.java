@@ -0,0 +1,146 @@
+/**
+ * This class is a RedBlackTree that also keeps, in every node, a summary
+ * (such as the sum or maximum of some attribute) of all the values in the
+ * node's subtree, as described by a SubtreeAggregate.  The summaries are
+ * kept up to date through refresh, which the tree calls on every node whose
+ * subtree changes: on the path above an inserted or removed value, and on
+ * both nodes of a rotation.  Recolouring never changes a subtree, so it
+ * needs no work.  A range query then combines the summaries of O(log n)
+ * subtrees instead of visiting every value in the range.
+ * @param <A> the type of the summaries
+ */
+public class AugmentedRedBlackTree<T extends Comparable<T>, A> extends RedBlackTree<T> {
+
+    /**
+     * A node that also stores the summary of its subtree.
+     */
+    protected static class AugmentedNode<T, A> extends RBTNode<T> {
+
+        // the summary of every value in the subtree rooted at this node
+        protected A aggregate;
+
+        /**
+         * @param data the value the new node stores
+         */
+        public AugmentedNode(T data) { super(data); }
+
+    }
+
+    // describes the summaries and how to combine them
+    private final SubtreeAggregate<T, A> aggregate;
+
+    /**
+     * Creates an empty tree that keeps summaries of its subtrees.
+     * @param aggregate describes the summaries
+     * @throws NullPointerException if aggregate is null
+     */
+    public AugmentedRedBlackTree(SubtreeAggregate<T, A> aggregate) throws NullPointerException {
+        if (aggregate == null) {
+            throw new NullPointerException();
+        }
+        this.aggregate = aggregate;
+    }
+
+    /**
+     * Creates an empty tree with the same aggregate, for split.  Trees that
+     * are joined or combined with this one must use the same aggregate,
+     * since the summaries of the subtrees they hand over are kept as they
+     * are.
+     * @return a new empty tree keeping the same summaries
+     */
+    @Override
+    protected RedBlackTree<T> newEmptyTree() {
+        return new AugmentedRedBlackTree<>(aggregate);
+    }
+
+    @Override
+    protected BSTNode<T> createNode(T data, boolean isRed) {
+        AugmentedNode<T, A> node = new AugmentedNode<>(data);
+        if (!isRed) {
+            node.flipColor();
+        }
+        node.aggregate = aggregate.of(data, 1);
+        return node;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void refresh(BSTNode<T> node) {
+        super.refresh(node);
+        A below = aggregate.combine(aggregateOf(node.left), aggregate.of(node.data, node.count));
+        ((AugmentedNode<T, A>) node).aggregate = aggregate.combine(below, aggregateOf(node.right));
+    }
+
+    /**
+     * @return the summary of every value in the tree
+     */
+    public A aggregate() {
+        return aggregateOf(root);
+    }
+
+    /**
+     * Summarizes the values of the tree between lo and hi in O(log n) time,
+     * by descending to the node where the paths to lo and hi part, and then
+     * down each path, combining the summaries of the subtrees that lie
+     * entirely between them.
+     * @param lo the smallest value to include (inclusive)
+     * @param hi the largest value to include (inclusive)
+     * @return the summary of the values v with lo <= v <= hi, or the
+     * identity when there are none
+     * @throws NullPointerException if lo or hi is null
+     */
+    public A aggregate(Comparable<T> lo, Comparable<T> hi) throws NullPointerException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException();
+        }
+        BSTNode<T> split = root;
+        while (split != null) {
+            if (lo.compareTo(split.data) > 0) {
+                split = split.right;
+            } else if (hi.compareTo(split.data) < 0) {
+                split = split.left;
+            } else {
+                break;
+            }
+        }
+        if (split == null) {
+            return aggregate.identity();
+        }
+
+        // the values of split's left subtree that are at least lo, gathered
+        // from the largest down, so each new part goes on the left
+        A left = aggregate.identity();
+        for (BSTNode<T> node = split.left; node != null; ) {
+            if (lo.compareTo(node.data) <= 0) {
+                A part = aggregate.combine(aggregate.of(node.data, node.count), aggregateOf(node.right));
+                left = aggregate.combine(part, left);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        // the values of split's right subtree that are at most hi, gathered
+        // from the smallest up, so each new part goes on the right
+        A right = aggregate.identity();
+        for (BSTNode<T> node = split.right; node != null; ) {
+            if (hi.compareTo(node.data) >= 0) {
+                A part = aggregate.combine(aggregateOf(node.left), aggregate.of(node.data, node.count));
+                right = aggregate.combine(right, part);
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return aggregate.combine(aggregate.combine(left, aggregate.of(split.data, split.count)), right);
+    }
+
+    /**
+     * @param node a node of this tree, or null
+     * @return the summary stored in node, or the identity when node is null
+     */
+    @SuppressWarnings("unchecked")
+    private A aggregateOf(BSTNode<T> node) {
+        return node == null ? aggregate.identity() : ((AugmentedNode<T, A>) node).aggregate;
+    }
+
+}
@@ -0,0 +1,117 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class tests the AugmentedRedBlackTree class.
+ */
+public class AugmentedRedBlackTreeTests {
+
+    /**
+     * An aggregate that joins the values in order, which is associative but
+     * not commutative, so it also checks the order parts are combined in.
+     */
+    private static final SubtreeAggregate<Integer, String> JOIN = new SubtreeAggregate<>() {
+        @Override
+        public String identity() { return ""; }
+
+        @Override
+        public String of(Integer value, int count) { return (value + ",").repeat(count); }
+
+        @Override
+        public String combine(String left, String right) { return left + right; }
+    };
+
+    /**
+     * Tests range aggregates after random inserts and removes, including
+     * duplicates, against the values found by iterating over the range.
+     */
+    @Test
+    public void testRangeAggregates() {
+        AugmentedRedBlackTree<Integer, Long> sums = new AugmentedRedBlackTree<>(SubtreeAggregate.sum((Integer value) -> value));
+        AugmentedRedBlackTree<Integer, Integer> maxima = new AugmentedRedBlackTree<>(SubtreeAggregate.max((Integer value) -> value % 97));
+        AugmentedRedBlackTree<Integer, String> joined = new AugmentedRedBlackTree<>(JOIN);
+        Random random = new Random(18);
+        for (int i = 0; i < 3000; i++) {
+            int value = random.nextInt(1000);
+            if (random.nextInt(3) == 0) {
+                sums.remove(value);
+                maxima.remove(value);
+                joined.remove(value);
+            } else {
+                sums.insert(value);
+                maxima.insert(value);
+                joined.insert(value);
+            }
+        }
+
+        for (int i = 0; i < 200; i++) {
+            int lo = random.nextInt(1100) - 50;
+            int hi = lo + random.nextInt(300);
+            long sum = 0;
+            Integer max = null;
+            StringBuilder join = new StringBuilder();
+            for (int value : sums.subSet(lo, true, hi, true)) {
+                sum += value;
+                max = max == null ? value % 97 : Math.max(max, value % 97);
+                join.append(value).append(',');
+            }
+            Assertions.assertEquals(sum, sums.aggregate(lo, hi));
+            Assertions.assertEquals(max, maxima.aggregate(lo, hi));
+            Assertions.assertEquals(join.toString(), joined.aggregate(lo, hi));
+        }
+        Assertions.assertEquals(sums.aggregate(-1, 1000), sums.aggregate());
+        Assertions.assertEquals(0L, sums.aggregate(600, 500));
+    }
+
+    /**
+     * Tests that the summaries are rebuilt by readSnapshot and kept up to
+     * date by clearing a range view.
+     */
+    @Test
+    public void testSnapshotAndRangeClear() throws IOException {
+        AugmentedRedBlackTree<Integer, Integer> counts = new AugmentedRedBlackTree<>(SubtreeAggregate.<Integer>count());
+        for (int i = 0; i < 500; i++) {
+            counts.insert(i % 250);
+        }
+        counts.subSet(100, 200).clear();
+        Assertions.assertEquals(300, counts.aggregate());
+        Assertions.assertEquals(0, counts.aggregate(100, 199));
+        Assertions.assertEquals(counts.countInRange(50, 220), counts.aggregate(50, 220));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        counts.writeSnapshot(bytes, ElementCodec.INTEGER);
+        AugmentedRedBlackTree<Integer, Long> sums = new AugmentedRedBlackTree<>(SubtreeAggregate.sum((Integer value) -> value));
+        sums.readSnapshot(new ByteArrayInputStream(bytes.toByteArray()), ElementCodec.INTEGER);
+        Assertions.assertEquals(2L * (99 * 100 / 2 + (200 + 249) * 50 / 2), sums.aggregate());
+        Assertions.assertEquals(2L * 249, sums.aggregate(249, 1000));
+        Assertions.assertThrows(NullPointerException.class, () -> new AugmentedRedBlackTree<Integer, Long>(null));
+    }
+
+    /**
+     * Tests that split and union keep the summaries up to date, and that the
+     * tree split off keeps the same aggregate.
+     */
+    @Test
+    public void testSplitAndUnion() {
+        SubtreeAggregate<Integer, Long> sum = SubtreeAggregate.sum((Integer value) -> value);
+        AugmentedRedBlackTree<Integer, Long> sums = new AugmentedRedBlackTree<>(sum);
+        AugmentedRedBlackTree<Integer, Long> others = new AugmentedRedBlackTree<>(sum);
+        for (int i = 0; i < 10000; i++) {
+            sums.insert(i);
+            others.insert(i * 3);
+        }
+        sums.union(others);
+        Assertions.assertEquals(49995000L + 3 * 49995000L, sums.aggregate());
+        // 10 to 30, and again the multiples of 3 among them
+        Assertions.assertEquals(420L + 147L, sums.aggregate(10, 30));
+
+        RedBlackTree<Integer> greater = sums.split(10000);
+        Assertions.assertEquals(3 * (49995000L - 3333L * 3334 / 2), ((AugmentedRedBlackTree<?, ?>) greater).aggregate());
+        Assertions.assertEquals(49995000L + 3 * (3333L * 3334 / 2), sums.aggregate());
+    }
+
+}
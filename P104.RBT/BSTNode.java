@@ -1,6 +1,5 @@
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * This class represents a node for a Binary Search Tree that holds a single 
@@ -19,6 +18,14 @@ public class BSTNode<T> {
     // reference to the node's right child
     protected BSTNode<T> right = null;
 
+    // number of occurrences of data stored in this node, since duplicates
+    // share a single node
+    protected int count = 1;
+
+    // number of values stored in the subtree rooted at this node, counting
+    // every occurrence of a duplicate
+    protected int size = 1;
+
     /**
      * Constructor that creates a new node with the value data. Both parent 
      * and child references of the new node are initialized to null.
@@ -49,6 +56,16 @@ public class BSTNode<T> {
      */
     public BSTNode<T> getUp() { return this.up; }
 
+    /**
+     * @return the number of values stored in the subtree rooted at this node
+     */
+    public int getSize() { return this.size; }
+
+    /**
+     * @return the number of occurrences of this node's value in the tree
+     */
+    public int getCount() { return this.count; }
+
     /**
      * Gives this node a new value and deletes the old value.
      * @param newData the new value to store in this node
@@ -94,83 +111,38 @@ public class BSTNode<T> {
     
     /**
      * Performs an level-order traversal of the subtree rooted at this node
-     * and generates a string represeation of those nodes' contents.
+     * and generates a string represeation of those nodes' contents.  To
+     * write a large tree without building one large string, use a
+     * TreeTraversal with any Appendable instead.
      * @return a string of node values in level-order
      */
     public String toLevelOrderString() {
-        // create a linked list that we'll use as a queue to store inprocessed nodes
-        Queue<BSTNode<T>> nodeList = new LinkedList<>();
-        // add this node to the queue first
-        nodeList.add(this);
-        // create the buffer to assemble the string efficiently
-        StringBuffer sb = new StringBuffer();
-        // add the bracket preceding the list of nodes to the buffer first
-        sb.append("[ ");
-        // keep processing nodes as long as we have any left on the queue
-        while (!nodeList.isEmpty()) {
-            // if it exists, add the left child of the head of the queue to the queue
-            if (nodeList.peek().getLeft() != null) {
-                nodeList.add(nodeList.peek().getLeft());
-            }
-            // if it exists, add the right child of the head of the queue to the queue
-            if (nodeList.peek().getRight() != null) {
-                nodeList.add(nodeList.peek().getRight());
-            }
-            // add the head of the queue to the string buffer and remove from queue
-            sb.append(nodeList.poll().toString());
-            // add a comma to separate values to the buffer, or close the bracket if
-            // we've just added the last node to it
-            if (nodeList.isEmpty()) {
-                sb.append(" ]");
-            } else {
-                sb.append(", ");
-            }
+        StringBuilder sb = new StringBuilder();
+        try {
+            new TreeTraversal<T>().appendLevelOrder(this, sb);
+        } catch (IOException e) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
-        // return the string built with the string buffer
         return sb.toString();
     }
 
     /**
      * Performs an in-order traversal of the subtree rooted at this node
      * and generates a string representation of those nodes' contents.
+     * A node holding several occurrences of its value lists it once for
+     * each occurrence.  To write a large tree without building one large
+     * string, use a TreeTraversal with any Appendable instead.
      * @return a string of node value in in-order
      */
     public String toInOrderString() {
-        // create a stack to keep track of unvisited nodes
-        Stack<BSTNode<T>> stack = new Stack<>();
-        // add root (this node) to the stack first
-        stack.push(this);
-        // follow the left child references and add all nodes on the path from this node
-        // to its left-most descendant to the stack
-        while (stack.peek().getLeft() != null) {
-            stack.push(stack.peek().getLeft());
-        }
-        // create a buffer to assemble the string efficiently
-        StringBuffer sb = new StringBuffer();
-        // add the bracket preceding the list of nodes to the buffer first
-        sb.append("[ ");
-        // keep processing nodes as long as the stack is not empty
-        while (!stack.isEmpty()) {
-            // pop the top node from the stack
-            BSTNode<T> current = stack.pop();
-            // add popped node to the string
-            sb.append(current.toString());
-            // handle the right subtree of the popped node
-            if (current.getRight() != null) {
-                stack.push(current.getRight());
-                while (stack.peek().getLeft() != null) {
-                    stack.push(stack.peek().getLeft());
-                }
-            }
-            // add a comma to separate values to the buffer, or close the bracket if
-            // we've just added the last node to it
-            if (!stack.isEmpty()) {
-                sb.append(", ");
-            } else {
-                sb.append(" ]");
-            }
+        StringBuilder sb = new StringBuilder();
+        try {
+            new TreeTraversal<T>().appendInOrder(this, sb);
+        } catch (IOException e) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
-        // return the string built with the string buffer
         return sb.toString();
     }
 
@@ -52,10 +52,16 @@ public class BSTRotation<T extends Comparable<T>> extends BinarySearchTree<T> {
             throw new IllegalArgumentException("These nodes do not have a parent-child relationship and cannot be rotated.");
         }
 
+        TreeStats.Counters enabled = counters;
+        if (enabled != null) {
+            (child.isRightChild() ? enabled.leftRotations : enabled.rightRotations).increment();
+        }
+
         // Perform a left rotation if it is a right child
         if (child.isRightChild()) {
             if (child.left != null) {
                 parent.setRight(child.left);
+                child.left.setUp(parent);
             } else {
                 parent.setRight(null);
             }
@@ -63,6 +69,7 @@ public class BSTRotation<T extends Comparable<T>> extends BinarySearchTree<T> {
         } else { // Else it is a left child so perform a right rotation
             if (child.right != null) {
                 parent.setLeft(child.right);
+                child.right.setUp(parent);
             } else {
                 parent.setLeft(null);
             }
@@ -88,6 +95,10 @@ public class BSTRotation<T extends Comparable<T>> extends BinarySearchTree<T> {
             root = child;
         }
 
+        // The parent is now below the child, so update its subtree size first
+        refresh(parent);
+        refresh(child);
+
     }
 
     public boolean test1() {
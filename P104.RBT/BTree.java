@@ -0,0 +1,473 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is a B-tree implementation of IterableSortedCollection.  Each
+ * node holds up to 2t - 1 values in a sorted array (and up to 2t children),
+ * where t is the tree's minimum degree, so a search reads a few wide nodes
+ * instead of one node per level of a binary tree.  Every node other than the
+ * root holds at least t - 1 values.
+ */
+public class BTree<T extends Comparable<T>> implements IterableSortedCollection<T> {
+
+    /**
+     * The default minimum degree, which gives nodes of up to 63 values and
+     * 64 children.
+     */
+    public static final int DEFAULT_MINIMUM_DEGREE = 32;
+
+    /**
+     * A node of the B-tree: a sorted array of values, and one more child
+     * than values unless the node is a leaf.
+     */
+    protected static class Node {
+        // the values stored in this node, in ascending order
+        protected final Object[] keys;
+        // the children between and around the values, or null for a leaf
+        protected final Node[] children;
+        // the number of values in keys that are in use
+        protected int count = 0;
+
+        protected Node(int maxKeys, boolean isLeaf) {
+            keys = new Object[maxKeys];
+            children = isLeaf ? null : new Node[maxKeys + 1];
+        }
+
+        protected boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    // the minimum degree of the tree
+    protected final int minDegree;
+    // the root of the tree, which is an empty leaf when the tree is empty
+    protected Node root;
+    // the number of values in the tree, including duplicates
+    protected int size = 0;
+
+    // bounds on the values returned by iterators, null when unbounded
+    private Comparable<T> iteratorMin = null;
+    private Comparable<T> iteratorMax = null;
+
+    /**
+     * Creates an empty B-tree with the default minimum degree.
+     */
+    public BTree() { this(DEFAULT_MINIMUM_DEGREE); }
+
+    /**
+     * Creates an empty B-tree whose nodes hold between t - 1 and 2t - 1 values.
+     * @param minDegree the minimum degree t
+     * @throws IllegalArgumentException if minDegree is less than 2
+     */
+    public BTree(int minDegree) throws IllegalArgumentException {
+        if (minDegree < 2) {
+            throw new IllegalArgumentException("The minimum degree of a B-tree must be at least 2.");
+        }
+        this.minDegree = minDegree;
+        this.root = new Node(maxKeys(), true);
+    }
+
+    /**
+     * Inserts a new value into the B-tree.  Each duplicate is stored as a key
+     * of its own, ordered before the equal keys already in the tree.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        // Full nodes are split on the way down, so there is always room in
+        // the parent for the middle value of a split child.
+        if (root.count == maxKeys()) {
+            Node newRoot = new Node(maxKeys(), false);
+            newRoot.children[0] = root;
+            root = newRoot;
+            splitChild(newRoot, 0);
+        }
+        Node node = root;
+        while (!node.isLeaf()) {
+            int i = lowerBound(node, data);
+            if (node.children[i].count == maxKeys()) {
+                splitChild(node, i);
+                if (data.compareTo(key(node, i)) > 0) {
+                    i++;
+                }
+            }
+            node = node.children[i];
+        }
+        int i = lowerBound(node, data);
+        System.arraycopy(node.keys, i, node.keys, i + 1, node.count - i);
+        node.keys[i] = data;
+        node.count++;
+        size++;
+    }
+
+    /**
+     * Check whether data is stored in the B-tree.
+     * @param data the value to check for in the collection
+     * @return true if the value is found, false otherwise
+     */
+    @Override
+    public boolean contains(Comparable<T> data) {
+        Node node = root;
+        while (true) {
+            int i = lowerBound(node, data);
+            if (i < node.count && matches(key(node, i), data)) {
+                return true;
+            }
+            if (node.isLeaf()) {
+                return false;
+            }
+            node = node.children[i];
+        }
+    }
+
+    /**
+     * Removes one occurrence of a value from the B-tree.
+     * @param data the value being removed
+     * @return true if a value was removed, false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        boolean removed = remove(root, data);
+        // a merge can empty the root, leaving its only child as the new root
+        if (root.count == 0 && !root.isLeaf()) {
+            root = root.children[0];
+        }
+        if (removed) {
+            size--;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes one occurrence of data from the subtree rooted at node, which
+     * holds at least t values unless it is the root.  Any child the search
+     * moves into is first given t values, so removing from it never leaves
+     * it below the minimum.
+     * @param node the root of the subtree to remove from
+     * @param data the value being removed
+     * @return true if a value was removed, false otherwise
+     */
+    private boolean remove(Node node, T data) {
+        while (true) {
+            int i = lowerBound(node, data);
+            if (i < node.count && matches(key(node, i), data)) {
+                if (node.isLeaf()) {
+                    removeKey(node, i);
+                } else if (node.children[i].count >= minDegree) {
+                    // replace the value with its predecessor
+                    node.keys[i] = removeLast(node.children[i]);
+                } else if (node.children[i + 1].count >= minDegree) {
+                    // replace the value with its successor
+                    node.keys[i] = removeFirst(node.children[i + 1]);
+                } else {
+                    // both neighbours are minimal, so merge them around the value and remove it there
+                    merge(node, i);
+                    node = node.children[i];
+                    continue;
+                }
+                return true;
+            }
+            if (node.isLeaf()) {
+                return false;
+            }
+            node = ensureSpareKey(node, i);
+        }
+    }
+
+    /**
+     * Removes the largest value from the subtree rooted at node, which holds
+     * at least t values.
+     * @param node the root of the subtree
+     * @return the value removed
+     */
+    private Object removeLast(Node node) {
+        while (!node.isLeaf()) {
+            node = ensureSpareKey(node, node.count);
+        }
+        Object last = node.keys[node.count - 1];
+        removeKey(node, node.count - 1);
+        return last;
+    }
+
+    /**
+     * Removes the smallest value from the subtree rooted at node, which holds
+     * at least t values.
+     * @param node the root of the subtree
+     * @return the value removed
+     */
+    private Object removeFirst(Node node) {
+        while (!node.isLeaf()) {
+            node = ensureSpareKey(node, 0);
+        }
+        Object first = node.keys[0];
+        removeKey(node, 0);
+        return first;
+    }
+
+    /**
+     * Makes sure the i-th child of node holds at least t values, by taking a
+     * value from a sibling that has one to spare or else merging it with a
+     * sibling.
+     * @param node a node with at least t values, or the root
+     * @param i the index of the child about to be descended into
+     * @return the node that now holds the i-th child's values
+     */
+    private Node ensureSpareKey(Node node, int i) {
+        Node child = node.children[i];
+        if (child.count >= minDegree) {
+            return child;
+        }
+        if (i > 0 && node.children[i - 1].count >= minDegree) {
+            // rotate the separating value down into child, and the left sibling's last value up
+            Node sibling = node.children[i - 1];
+            System.arraycopy(child.keys, 0, child.keys, 1, child.count);
+            child.keys[0] = node.keys[i - 1];
+            if (!child.isLeaf()) {
+                System.arraycopy(child.children, 0, child.children, 1, child.count + 1);
+                child.children[0] = sibling.children[sibling.count];
+                sibling.children[sibling.count] = null;
+            }
+            child.count++;
+            node.keys[i - 1] = sibling.keys[sibling.count - 1];
+            sibling.keys[--sibling.count] = null;
+            return child;
+        }
+        if (i < node.count && node.children[i + 1].count >= minDegree) {
+            // rotate the separating value down into child, and the right sibling's first value up
+            Node sibling = node.children[i + 1];
+            child.keys[child.count] = node.keys[i];
+            if (!child.isLeaf()) {
+                child.children[child.count + 1] = sibling.children[0];
+                System.arraycopy(sibling.children, 1, sibling.children, 0, sibling.count);
+                sibling.children[sibling.count] = null;
+            }
+            child.count++;
+            node.keys[i] = sibling.keys[0];
+            removeKey(sibling, 0);
+            return child;
+        }
+        if (i < node.count) {
+            merge(node, i);
+            return node.children[i];
+        }
+        merge(node, i - 1);
+        return node.children[i - 1];
+    }
+
+    /**
+     * Splits the full i-th child of node into two nodes of t - 1 values,
+     * moving its middle value up into node.
+     * @param node a node with room for one more value
+     * @param i the index of the full child
+     */
+    private void splitChild(Node node, int i) {
+        Node child = node.children[i];
+        Node sibling = new Node(maxKeys(), child.isLeaf());
+        int t = minDegree;
+        System.arraycopy(child.keys, t, sibling.keys, 0, t - 1);
+        if (!child.isLeaf()) {
+            System.arraycopy(child.children, t, sibling.children, 0, t);
+            Arrays.fill(child.children, t, 2 * t, null);
+        }
+        sibling.count = t - 1;
+
+        System.arraycopy(node.children, i + 1, node.children, i + 2, node.count - i);
+        node.children[i + 1] = sibling;
+        System.arraycopy(node.keys, i, node.keys, i + 1, node.count - i);
+        node.keys[i] = child.keys[t - 1];
+        node.count++;
+
+        Arrays.fill(child.keys, t - 1, 2 * t - 1, null);
+        child.count = t - 1;
+    }
+
+    /**
+     * Merges the (i + 1)-th child of node into the i-th child, with the value
+     * that separated them in between.  Both children hold t - 1 values.
+     * @param node the parent of the two children
+     * @param i the index of the left child
+     */
+    private void merge(Node node, int i) {
+        Node child = node.children[i];
+        Node sibling = node.children[i + 1];
+        child.keys[child.count] = node.keys[i];
+        System.arraycopy(sibling.keys, 0, child.keys, child.count + 1, sibling.count);
+        if (!child.isLeaf()) {
+            System.arraycopy(sibling.children, 0, child.children, child.count + 1, sibling.count + 1);
+        }
+        child.count += sibling.count + 1;
+
+        removeKey(node, i);
+        System.arraycopy(node.children, i + 2, node.children, i + 1, node.count - i);
+        node.children[node.count + 1] = null;
+    }
+
+    /**
+     * Removes the i-th value from node, shifting the later values down.  The
+     * children are left in place.
+     * @param node the node to remove from
+     * @param i the index of the value to remove
+     */
+    private void removeKey(Node node, int i) {
+        System.arraycopy(node.keys, i + 1, node.keys, i, node.count - i - 1);
+        node.keys[--node.count] = null;
+    }
+
+    /**
+     * @param node the node to search
+     * @param data the value to search for
+     * @return the index of the first value in node that is not less than data
+     */
+    private int lowerBound(Node node, Comparable<T> data) {
+        int low = 0;
+        int high = node.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (data.compareTo(key(node, middle)) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param key a value stored in the tree
+     * @param data the value being searched for
+     * @return true when key is the value being searched for, using the same
+     * test as BinarySearchTree.lookup
+     */
+    private boolean matches(T key, Comparable<T> data) {
+        return data.compareTo(key) == 0 && key.equals(data);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T key(Node node, int i) {
+        return (T) node.keys[i];
+    }
+
+    /**
+     * @return the largest number of values a node can hold
+     */
+    private int maxKeys() {
+        return 2 * minDegree - 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        root = new Node(maxKeys(), true);
+        size = 0;
+    }
+
+    @Override
+    public void setIteratorMin(Comparable<T> min) {
+        this.iteratorMin = min;
+    }
+
+    @Override
+    public void setIteratorMax(Comparable<T> max) {
+        this.iteratorMax = max;
+    }
+
+    /**
+     * @return an iterator over the values of the B-tree in ascending order,
+     * starting at the first value that is not less than the iterator min and
+     * stopping after the last value that is not greater than the iterator max
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new BTreeIterator(iteratorMin, iteratorMax);
+    }
+
+    /**
+     * Steps through the values of the B-tree in order, keeping the path from
+     * the root to the current value as parallel arrays of nodes and indices.
+     */
+    private class BTreeIterator implements Iterator<T> {
+        private final Comparable<T> max;
+        private Node[] nodes = new Node[8];
+        private int[] indices = new int[8];
+        // the number of entries on the path, or 0 when iteration is done
+        private int depth = 0;
+
+        private BTreeIterator(Comparable<T> min, Comparable<T> max) {
+            this.max = max;
+            // descend to the first value not less than min, remembering where
+            // to continue in each node on the way down
+            Node node = root;
+            while (node != null) {
+                int i = min == null ? 0 : lowerBound(node, min);
+                push(node, i);
+                node = node.isLeaf() ? null : node.children[i];
+            }
+            skipFinishedNodes();
+        }
+
+        private void push(Node node, int i) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                indices = Arrays.copyOf(indices, depth * 2);
+            }
+            nodes[depth] = node;
+            indices[depth] = i;
+            depth++;
+        }
+
+        /**
+         * Pops nodes whose values have all been returned, so the top of the
+         * path is at the next value (if there is one).
+         */
+        private void skipFinishedNodes() {
+            while (depth > 0 && indices[depth - 1] >= nodes[depth - 1].count) {
+                nodes[--depth] = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0 && (max == null || max.compareTo(key(nodes[depth - 1], indices[depth - 1])) >= 0);
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node node = nodes[depth - 1];
+            int i = indices[depth - 1]++;
+            T value = key(node, i);
+            // the values of the child after this one come next
+            if (!node.isLeaf()) {
+                Node child = node.children[i + 1];
+                while (child != null) {
+                    push(child, 0);
+                    child = child.isLeaf() ? null : child.children[0];
+                }
+            }
+            skipFinishedNodes();
+            return value;
+        }
+    }
+
+}
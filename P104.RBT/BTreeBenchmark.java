@@ -0,0 +1,68 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class compares the time a BTree and a RedBlackTree take to insert
+ * random values and then look up as many random values (roughly 40% of them
+ * present).  The sizes to run are given as arguments, and default to 10,000
+ * and 1,000,000; pass 10000000 as well with a heap of a few gigabytes.
+ */
+public class BTreeBenchmark {
+
+    // the number of times each measurement is repeated, keeping the fastest
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0
+            ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+            : new int[] { 10000, 1000000 };
+
+        for (int size : sizes) {
+            Random random = new Random(size);
+            Integer[] values = new Integer[size];
+            Integer[] probes = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = random.nextInt(2 * size);
+                probes[i] = random.nextInt(2 * size);
+            }
+            run("RedBlackTree", new RedBlackTree<>(), values, probes);
+            run("BTree(t=32)", new BTree<>(), values, probes);
+            run("BTree(t=64)", new BTree<>(64), values, probes);
+        }
+    }
+
+    /**
+     * Times inserting every value into an emptied tree, and then checking
+     * every probe, printing the fastest of ROUNDS runs of each.
+     * @param name the name of the tree type to print
+     * @param tree the tree to fill
+     * @param values the values to insert
+     * @param probes the values to look up
+     */
+    private static void run(String name, SortedCollection<Integer> tree, Integer[] values, Integer[] probes) {
+        long bestInsert = Long.MAX_VALUE;
+        long bestContains = Long.MAX_VALUE;
+        int found = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            tree.clear();
+            long start = System.nanoTime();
+            for (Integer value : values) {
+                tree.insert(value);
+            }
+            bestInsert = Math.min(bestInsert, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            found = 0;
+            for (Integer probe : probes) {
+                if (tree.contains(probe)) {
+                    found++;
+                }
+            }
+            bestContains = Math.min(bestContains, System.nanoTime() - start);
+        }
+        System.out.printf("%-13s n=%-9d insert %7.1f ns/op   contains %7.1f ns/op   (%d found)%n",
+            name, values.length, (double) bestInsert / values.length,
+            (double) bestContains / probes.length, found);
+    }
+
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class tests the BTree class against a RedBlackTree holding the same
+ * values, using small minimum degrees so that nodes split and merge often.
+ */
+public class BTreeTests {
+
+    /**
+     * Tests random inserts, duplicates and removals with minimum degrees 2
+     * and 3, checking contains, size and the iteration order.
+     */
+    @Test
+    public void testBTreeMatchesRedBlackTree() {
+        for (int minDegree = 2; minDegree <= 3; minDegree++) {
+            BTree<Integer> bTree = new BTree<>(minDegree);
+            RedBlackTree<Integer> expected = new RedBlackTree<>();
+            Random random = new Random(700 + minDegree);
+            for (int i = 0; i < 4000; i++) {
+                int value = random.nextInt(500);
+                if (random.nextInt(3) > 0) {
+                    bTree.insert(value);
+                    expected.insert(value);
+                } else {
+                    Assertions.assertEquals(expected.remove(value), bTree.remove(value));
+                }
+                Assertions.assertEquals(expected.contains(value), bTree.contains(value));
+                Assertions.assertEquals(expected.size(), bTree.size());
+            }
+            List<Integer> values = new ArrayList<>();
+            bTree.forEach(values::add);
+            for (int i = 0; i < values.size(); i++) {
+                Assertions.assertEquals(expected.select(i), values.get(i));
+            }
+            while (!expected.isEmpty()) {
+                Assertions.assertTrue(bTree.remove(expected.select(0)));
+                expected.remove(expected.select(0));
+            }
+            Assertions.assertTrue(bTree.isEmpty());
+        }
+    }
+
+    /**
+     * Tests that iterators start at the iterator min and stop after the
+     * iterator max, both inclusive, including duplicates at the bounds.
+     */
+    @Test
+    public void testBTreeIteratorBounds() {
+        BTree<Integer> bTree = new BTree<>(2);
+        for (int i = 0; i < 50; i++) {
+            bTree.insert(i / 2);
+        }
+        bTree.setIteratorMin(10);
+        bTree.setIteratorMax(12);
+        List<Integer> values = new ArrayList<>();
+        bTree.forEach(values::add);
+        Assertions.assertEquals(List.of(10, 10, 11, 11, 12, 12), values);
+
+        bTree.setIteratorMin(null);
+        bTree.setIteratorMax(0);
+        Iterator<Integer> iterator = bTree.iterator();
+        Assertions.assertEquals(0, iterator.next());
+        Assertions.assertEquals(0, iterator.next());
+        Assertions.assertFalse(iterator.hasNext());
+
+        bTree.setIteratorMin(30);
+        bTree.setIteratorMax(null);
+        Assertions.assertFalse(bTree.iterator().hasNext());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BTree<Integer>(1));
+    }
+
+}
@@ -1,48 +1,120 @@
-public class BinarySearchTree<T extends Comparable<T>> implements SortedCollection<T> {
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class BinarySearchTree<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T> {
+
+    // marks the start of a snapshot written by writeSnapshot
+    private static final int SNAPSHOT_MAGIC = 0x534e4150;
+    // the flags stored with each node of a snapshot
+    private static final int SNAPSHOT_HAS_LEFT = 1;
+    private static final int SNAPSHOT_HAS_RIGHT = 2;
+    private static final int SNAPSHOT_RED = 4;
+    private static final int SNAPSHOT_COUNTED = 8;
 
     /**
      * The binary search tree's root node.
      */
     protected BSTNode<T> root;
 
+    /**
+     * The instrumentation counters, or null while they are not enabled, so
+     * that an uninstrumented tree pays only a null check per operation.
+     */
+    protected TreeStats.Counters counters;
+
     /**
      * Default constructor that initializes the root node to null.
      */
     public BinarySearchTree() { root = null; }
 
     /**
-     * Performs the naive binary search tree insert algorithm to recursively
-     * insert the provided newNode (which has already been initialized with a
-     * data value) into the provided tree/subtree.  When the provided subtree
-     * is null, this method does nothing.
+     * Performs the naive binary search tree insert algorithm to insert the
+     * provided newNode (which has already been initialized with a data value)
+     * into the provided tree/subtree.  When the provided subtree is null, this
+     * method does nothing.  The descent is iterative, so inserting into a
+     * degenerate (e.g. sorted input) tree never grows the call stack.  A
+     * value equal to one already in the tree is not linked in as a new node;
+     * instead the existing node's occurrence count is incremented.
      * @param newNode the node to insert into the BST as a leaf
      * @param subtree the current node we are searching from for insertion
+     * @return true if newNode was linked into the tree, false if its value
+     * was added to the count of an existing node
      */
-    protected void insertHelper(BSTNode<T> newNode, BSTNode<T> subtree) {
-        if (subtree != null) {
-            if (newNode.data.equals(subtree.data)) {
-                if (subtree.left == null) {
-                    newNode.setUp(subtree);
-                    subtree.setLeft(newNode);
-                } else {
-                    insertHelper(newNode, subtree.left);
-                }
-            } else if (newNode.data.compareTo(subtree.data) < 0) {
-                if (subtree.left == null) {
-                    newNode.setUp(subtree);
-                    subtree.setLeft(newNode);
-                } else {
-                    insertHelper(newNode, subtree.left);
+    protected boolean insertHelper(BSTNode<T> newNode, BSTNode<T> subtree) {
+        BSTNode<T> current = subtree;
+        boolean isLinked = false;
+        int comparisons = 0;
+        while (current != null) {
+            // follow the same path as lookup, so an equal value is always found
+            int cmp = newNode.data.compareTo(current.data);
+            comparisons++;
+            if (cmp == 0 && newNode.data.equals(current.data)) {
+                current.count++;
+                break;
+            }
+            if (cmp < 0) {
+                if (current.left == null) {
+                    newNode.setUp(current);
+                    current.setLeft(newNode);
+                    isLinked = true;
+                    break;
                 }
+                current = current.left;
             } else {
-                if (subtree.right == null) {
-                    newNode.setUp(subtree);
-                    subtree.setRight(newNode);
-                } else {
-                    insertHelper(newNode, subtree.right);
+                if (current.right == null) {
+                    newNode.setUp(current);
+                    current.setRight(newNode);
+                    isLinked = true;
+                    break;
                 }
+                current = current.right;
             }
         }
+        // current is now the node holding the value or the new leaf's parent,
+        // and it and every ancestor have one more value in their subtrees
+        for (BSTNode<T> ancestor = current; ancestor != null; ancestor = ancestor.up) {
+            refresh(ancestor);
+        }
+        countOperation(comparisons);
+        return isLinked;
+    }
+
+    /**
+     * Recomputes the subtree size stored in node from its occurrence count
+     * and the sizes of its children.  Called on every node whose children change during a
+     * restructuring operation such as a rotation, and on every node above a
+     * value that is inserted or removed.  Subclasses that keep more about
+     * each subtree override this to update it too.
+     * @param node the node to update
+     */
+    protected void refresh(BSTNode<T> node) {
+        node.size = node.count + sizeOf(node.left) + sizeOf(node.right);
+    }
+
+    /**
+     * @param node a node of this tree, or null
+     * @return the number of values in the subtree rooted at node, or 0 when
+     * node is null
+     */
+    protected static int sizeOf(BSTNode<?> node) {
+        return node == null ? 0 : node.size;
     }
 
     /**
@@ -52,34 +124,47 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
      */
     @Override
     public boolean contains(Comparable<T> data) {
-        return lookup(root, data);
+        return lookup(root, data) != null;
     }
 
     /**
-     * Recursively search the BST for the specified value.
-     * @param node the current node we are comparing to data
+     * Iteratively search the subtree rooted at node for the specified value.
+     * @param node the root of the subtree to search
      * @param data the value we are searching for
-     * @return true if the value is within the BST, false otherwise
+     * @return the first node found that holds the value, or null if the value
+     * is not within the subtree
      */
-    private boolean lookup(BSTNode<T> node, Comparable<T> data) {
-
-        if (node == null) {
-            return false;
-        }
-
-        if (node.data.equals(data)) {
-            return true;
+    protected BSTNode<T> lookup(BSTNode<T> node, Comparable<T> data) {
+        BSTNode<T> current = node;
+        int comparisons = 0;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            comparisons++;
+            if (cmp == 0 && current.data.equals(data)) {
+                break;
+            }
+            current = cmp < 0 ? current.left : current.right;
         }
+        countOperation(comparisons);
+        return current;
+    }
 
-        if (data.compareTo(node.data) < 0) {
-            return lookup(node.left, data);
-        } else {
-            return lookup(node.right, data);
+    /**
+     * Counts one operation and the comparisons it made, when the counters
+     * are enabled.
+     * @param comparisons the number of values the operation compared
+     */
+    protected void countOperation(int comparisons) {
+        TreeStats.Counters enabled = counters;
+        if (enabled != null) {
+            enabled.operations.increment();
+            enabled.comparisons.add(comparisons);
         }
     }
 
     /**
-     * Inserts a new value as a leaf BSTNode of the BST.
+     * Inserts a new value as a leaf BSTNode of the BST, or as one more
+     * occurrence of an equal value's node.
      * @param data the new value being inserted
      * @throws NullPointerException if data argument is null, we do not
      * allow null values to be stored within a BST
@@ -90,41 +175,614 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
             throw new NullPointerException();
         }
 
-        BSTNode<T> newNode = new BSTNode<>(data);
+        BSTNode<T> newNode = createNode(data, false);
         if (root == null) {
             root = newNode;
+            countOperation(0);
         } else {
             insertHelper(newNode, root);
         }
     }
 
     /**
-     * Count the number of nodes in the BST including duplicates.
-     * @return the number of nodes in the BST
+     * Removes one occurrence of a value from the BST.  The value's node is
+     * only unlinked once its last occurrence is removed.
+     * @param data the value being removed
+     * @return true if an occurrence of data was removed, false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        BSTNode<T> node = lookup(root, data);
+        if (node == null) {
+            return false;
+        }
+        if (node.count > 1) {
+            node.count--;
+            for (BSTNode<T> ancestor = node; ancestor != null; ancestor = ancestor.up) {
+                refresh(ancestor);
+            }
+        } else {
+            removeNode(node);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the provided node, with every occurrence of its value, from
+     * the BST.  A node with two children takes the value (and count) of its
+     * in-order successor, and the successor's node (which has no left child)
+     * is unlinked instead.
+     * @param node the node of this tree holding the value to remove
+     */
+    protected void removeNode(BSTNode<T> node) {
+        if (node.left != null && node.right != null) {
+            BSTNode<T> successor = successorInSubtree(node);
+            node.data = successor.data;
+            node.count = successor.count;
+            node = successor;
+        }
+        splice(node, node.left != null ? node.left : node.right);
+    }
+
+    /**
+     * @param node a node with a right child
+     * @return the left-most node of node's right subtree
+     */
+    protected BSTNode<T> successorInSubtree(BSTNode<T> node) {
+        BSTNode<T> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return successor;
+    }
+
+    /**
+     * @param node a node of this tree, or null
+     * @return the left-most node of the subtree rooted at node, or null
+     * when node is null
+     */
+    protected static <T> BSTNode<T> leftmost(BSTNode<T> node) {
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Finds the node that follows a node in ascending order by following
+     * child and parent references, without a stack.
+     * @param node a node of this tree
+     * @return the node holding the next larger value, or null when node
+     * holds the largest value
+     */
+    protected static <T> BSTNode<T> successor(BSTNode<T> node) {
+        if (node.right != null) {
+            return leftmost(node.right);
+        }
+        // climb until we come up from a left child
+        while (node.up != null && node.up.right == node) {
+            node = node.up;
+        }
+        return node.up;
+    }
+
+    /**
+     * Unlinks a node with at most one child from the BST by putting that
+     * child in its place, and updates the subtree sizes of its ancestors.
+     * @param node the node to unlink
+     * @param child the only child of node, or null if node is a leaf
+     */
+    protected void splice(BSTNode<T> node, BSTNode<T> child) {
+        BSTNode<T> parent = node.up;
+        if (child != null) {
+            child.setUp(parent);
+        }
+        if (parent == null) {
+            root = child;
+        } else if (parent.left == node) {
+            parent.setLeft(child);
+        } else {
+            parent.setRight(child);
+        }
+        node.setUp(null);
+        node.setLeft(null);
+        node.setRight(null);
+        // recompute the sizes above the unlinked node, which also accounts for
+        // a count moved into an ancestor by removeNode
+        for (BSTNode<T> ancestor = parent; ancestor != null; ancestor = ancestor.up) {
+            refresh(ancestor);
+        }
+    }
+
+    /**
+     * Count the number of values in the BST including duplicates.  Every
+     * node keeps the size of its subtree, so this takes constant time.
+     * @return the number of values in the BST
      */
     @Override
     public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Counts the values in the BST that are strictly less than data.
+     * @param data the value to rank
+     * @return the number of values less than data, which is also the index
+     * data has (or would have) in the sorted order of the BST
+     */
+    public int rank(Comparable<T> data) {
+        int rank = 0;
+        BSTNode<T> current = root;
+        while (current != null) {
+            if (data.compareTo(current.data) <= 0) {
+                current = current.left;
+            } else {
+                rank += sizeOf(current.left) + current.count;
+                current = current.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Counts the values in the BST that are less than or equal to data.
+     * @param data the upper bound to count to
+     * @return the number of values less than or equal to data
+     */
+    protected int rankInclusive(Comparable<T> data) {
+        int rank = 0;
+        BSTNode<T> current = root;
+        while (current != null) {
+            if (data.compareTo(current.data) < 0) {
+                current = current.left;
+            } else {
+                rank += sizeOf(current.left) + current.count;
+                current = current.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Finds the value at the specified position in the sorted order of the
+     * BST, with each duplicate value occupying its own position.
+     * @param index the zero-based position of the value to find
+     * @return the value with exactly index values before it
+     * @throws IndexOutOfBoundsException if index is negative or not less
+     * than size()
+     */
+    public T select(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size());
+        }
+        BSTNode<T> current = root;
+        while (true) {
+            int leftSize = sizeOf(current.left);
+            if (index < leftSize) {
+                current = current.left;
+            } else if (index < leftSize + current.count) {
+                return current.data;
+            } else {
+                index -= leftSize + current.count;
+                current = current.right;
+            }
+        }
+    }
+
+    /**
+     * Counts the values in the BST that fall between lo and hi.
+     * @param lo the smallest value to count (inclusive)
+     * @param hi the largest value to count (inclusive)
+     * @return the number of values v with lo <= v <= hi, including
+     * duplicates, or 0 when lo is greater than hi
+     */
+    public int countInRange(Comparable<T> lo, Comparable<T> hi) {
+        return Math.max(0, rankInclusive(hi) - rank(lo));
+    }
+
+    /**
+     * Returns an iterator over the values of the BST in ascending order,
+     * each duplicate as many times as it occurs.  The iterator moves from
+     * node to node through the parent references, so it only stores its
+     * current node and allocates nothing per step.  The BST must not be
+     * changed while the iterator is in use.
+     * @return an iterator over the values of the BST
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return ascendingIterator(leftmost(root), null, false);
+    }
+
+    /**
+     * Returns a spliterator over the values of the BST in ascending order,
+     * which splits at subtree roots and knows the exact size of each part.
+     * The BST must not be changed while the spliterator is in use.
+     * @return a spliterator over the values of the BST
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new TreeSpliterator<>(root);
+    }
+
+    /**
+     * Returns a sequential stream over the values of the BST in ascending
+     * order, each duplicate as many times as it occurs.  Call parallel() on
+     * it to process the values on several cores.
+     * @return a stream over the values of the BST
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns an iterator over the values of the BST from a node onwards in
+     * ascending order, stopping before the first value past an upper bound.
+     * @param first the node holding the first value to return, or null for
+     * an iterator with no values
+     * @param hi the upper bound, or null to continue to the largest value
+     * @param hiInclusive whether values equal to hi are returned
+     * @return an iterator over the values from first's to hi
+     */
+    protected Iterator<T> ascendingIterator(BSTNode<T> first, Comparable<T> hi, boolean hiInclusive) {
+        return new Iterator<T>() {
+            // the node holding the next value, or null at the end
+            private BSTNode<T> next = beyond(first) ? null : first;
+            // the number of occurrences of next's value already returned
+            private int returned = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                T value = next.data;
+                if (++returned == next.count) {
+                    next = successor(next);
+                    returned = 0;
+                    if (beyond(next)) {
+                        next = null;
+                    }
+                }
+                return value;
+            }
+
+            private boolean beyond(BSTNode<T> node) {
+                if (node == null || hi == null) {
+                    return false;
+                }
+                int cmp = hi.compareTo(node.data);
+                return hiInclusive ? cmp < 0 : cmp <= 0;
+            }
+        };
+    }
+
+    /**
+     * Finds the node holding the smallest value that is at least (or, when
+     * not inclusive, greater than) a bound, in a single descent.
+     * @param data the lower bound
+     * @param inclusive whether a value equal to data is accepted
+     * @return the left-most node past the bound, or null when every value
+     * of the BST is below it
+     */
+    protected BSTNode<T> ceilingNode(Comparable<T> data, boolean inclusive) {
+        BSTNode<T> ceiling = null;
+        BSTNode<T> current = root;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                ceiling = current;
+                current = current.left;
+            } else {
+                current = current.right;
+            }
+        }
+        return ceiling;
+    }
+
+    /**
+     * Finds the node holding the largest value that is at most (or, when
+     * not inclusive, less than) a bound, in a single descent.
+     * @param data the upper bound
+     * @param inclusive whether a value equal to data is accepted
+     * @return the right-most node below the bound, or null when every value
+     * of the BST is above it
+     */
+    protected BSTNode<T> floorNode(Comparable<T> data, boolean inclusive) {
+        BSTNode<T> floor = null;
+        BSTNode<T> current = root;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            if (cmp > 0 || (inclusive && cmp == 0)) {
+                floor = current;
+                current = current.right;
+            } else {
+                current = current.left;
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * @param data the value to search from
+     * @return the largest value less than or equal to data, or null if
+     * there is none
+     */
+    public T floor(Comparable<T> data) {
+        return dataOf(floorNode(data, true));
+    }
+
+    /**
+     * @param data the value to search from
+     * @return the smallest value greater than or equal to data, or null if
+     * there is none
+     */
+    public T ceiling(Comparable<T> data) {
+        return dataOf(ceilingNode(data, true));
+    }
+
+    /**
+     * @param data the value to search from
+     * @return the largest value strictly less than data, or null if there
+     * is none
+     */
+    public T lower(Comparable<T> data) {
+        return dataOf(floorNode(data, false));
+    }
+
+    /**
+     * @param data the value to search from
+     * @return the smallest value strictly greater than data, or null if
+     * there is none
+     */
+    public T higher(Comparable<T> data) {
+        return dataOf(ceilingNode(data, false));
+    }
+
+    /**
+     * @return the smallest value in the BST
+     * @throws NoSuchElementException if the BST is empty
+     */
+    public T first() throws NoSuchElementException {
         if (root == null) {
-            return 0;
+            throw new NoSuchElementException();
         }
-        return count(root);
+        return leftmost(root).data;
     }
 
     /**
-     * Recursively count the number of nodes in the BST.
-     * @param node the BSTNode to count from this iteration
-     * @return the number of nodes in the subtree with the node
-     * parameter as its root
+     * @return the largest value in the BST
+     * @throws NoSuchElementException if the BST is empty
      */
-    private int count(BSTNode<T> node) {
-        int count = 1;
-        if (node.left != null) {
-            count += count(node.left);
+    public T last() throws NoSuchElementException {
+        if (root == null) {
+            throw new NoSuchElementException();
         }
-        if (node.right != null) {
-            count += count(node.right);
+        BSTNode<T> node = root;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.data;
+    }
+
+    /**
+     * Finds the value closest to target, where the distance between two
+     * values is the difference of their positions, such as the years of two
+     * songs.  The largest value at most target and the smallest value at
+     * least target are both found in a single descent, and the closer of
+     * the two is returned.  The positions must increase with the order of
+     * the values.
+     * @param target the value to search near
+     * @param position gives the position of a value
+     * @return the value with the position closest to target's, the smaller
+     * of two equally close values, or null if the BST is empty
+     * @throws NullPointerException if target or position is null
+     */
+    public T nearest(T target, ToDoubleFunction<? super T> position) throws NullPointerException {
+        if (target == null || position == null) {
+            throw new NullPointerException();
+        }
+        BSTNode<T> below = null;
+        BSTNode<T> above = null;
+        BSTNode<T> current = root;
+        while (current != null) {
+            int cmp = target.compareTo(current.data);
+            if (cmp == 0) {
+                return current.data;
+            }
+            if (cmp < 0) {
+                above = current;
+                current = current.left;
+            } else {
+                below = current;
+                current = current.right;
+            }
+        }
+        if (below == null || above == null) {
+            return below == null ? dataOf(above) : below.data;
+        }
+        double at = position.applyAsDouble(target);
+        double belowDistance = at - position.applyAsDouble(below.data);
+        double aboveDistance = position.applyAsDouble(above.data) - at;
+        return aboveDistance < belowDistance ? above.data : below.data;
+    }
+
+    /**
+     * @param node a node, or null
+     * @return the value of node, or null when node is null
+     */
+    private static <T> T dataOf(BSTNode<T> node) {
+        return node == null ? null : node.data;
+    }
+
+    /**
+     * Returns a view of the values of the BST from lo up to but not
+     * including hi.  The view copies nothing, and changes to the BST show
+     * through it.
+     * @param lo the smallest value of the view
+     * @param hi the bound the values of the view are less than
+     * @return a view of the values v with lo <= v < hi
+     * @throws NullPointerException if lo or hi is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    public RangeView<T> subSet(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        return subSet(lo, true, hi, false);
+    }
+
+    /**
+     * Returns a view of the values of the BST between lo and hi.
+     * @param lo the lower bound of the view
+     * @param loInclusive whether values equal to lo are in the view
+     * @param hi the upper bound of the view
+     * @param hiInclusive whether values equal to hi are in the view
+     * @return a view of the values between lo and hi
+     * @throws NullPointerException if lo or hi is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    public RangeView<T> subSet(T lo, boolean loInclusive, T hi, boolean hiInclusive)
+        throws NullPointerException, IllegalArgumentException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException();
+        }
+        if (lo.compareTo(hi) > 0) {
+            throw new IllegalArgumentException("The lower bound " + lo + " is greater than the upper bound " + hi);
+        }
+        return new RangeView<>(this, lo, loInclusive, hi, hiInclusive);
+    }
+
+    /**
+     * Returns a view of the values of the BST that are less than hi.
+     * @param hi the bound the values of the view are less than
+     * @return a view of the values v with v < hi
+     * @throws NullPointerException if hi is null
+     */
+    public RangeView<T> headSet(T hi) throws NullPointerException {
+        return headSet(hi, false);
+    }
+
+    /**
+     * Returns a view of the values of the BST up to hi.
+     * @param hi the upper bound of the view
+     * @param inclusive whether values equal to hi are in the view
+     * @return a view of the values up to hi
+     * @throws NullPointerException if hi is null
+     */
+    public RangeView<T> headSet(T hi, boolean inclusive) throws NullPointerException {
+        if (hi == null) {
+            throw new NullPointerException();
+        }
+        return new RangeView<>(this, null, false, hi, inclusive);
+    }
+
+    /**
+     * Returns a view of the values of the BST from lo upwards.
+     * @param lo the smallest value of the view
+     * @return a view of the values v with lo <= v
+     * @throws NullPointerException if lo is null
+     */
+    public RangeView<T> tailSet(T lo) throws NullPointerException {
+        return tailSet(lo, true);
+    }
+
+    /**
+     * Returns a view of the values of the BST from lo upwards.
+     * @param lo the lower bound of the view
+     * @param inclusive whether values equal to lo are in the view
+     * @return a view of the values from lo upwards
+     * @throws NullPointerException if lo is null
+     */
+    public RangeView<T> tailSet(T lo, boolean inclusive) throws NullPointerException {
+        if (lo == null) {
+            throw new NullPointerException();
+        }
+        return new RangeView<>(this, lo, inclusive, null, false);
+    }
+
+    /**
+     * Starts counting operations, comparisons and restructuring, for stats
+     * to report.  Counting stays off until this is called, and calling it
+     * again keeps the counts so far.
+     */
+    public void enableStats() {
+        if (counters == null) {
+            counters = new TreeStats.Counters();
+        }
+    }
+
+    /**
+     * Stops counting and discards the counts so far.
+     */
+    public void disableStats() {
+        counters = null;
+    }
+
+    /**
+     * Takes a snapshot of the counters, together with the current height
+     * (and, for a tree with colours, black height) of the BST.  Measuring
+     * the height visits every node, so this takes O(n) time.
+     * @return the counts since enableStats, all 0 when counting is off
+     */
+    public TreeStats stats() {
+        int blackHeight = -1;
+        if (storesColours()) {
+            blackHeight = 0;
+            for (BSTNode<T> node = root; node != null; node = node.left) {
+                if (!isRedNode(node)) {
+                    blackHeight++;
+                }
+            }
         }
-        return count;
+        return new TreeStats(counters, height(), blackHeight);
+    }
+
+    /**
+     * Measures the height of the BST by walking it in order through the
+     * parent references, tracking the depth, so that it needs no stack even
+     * for a degenerate tree.
+     * @return the number of nodes on the longest path from the root, or 0
+     * for an empty BST
+     */
+    public int height() {
+        if (root == null) {
+            return 0;
+        }
+        int height = 0;
+        int depth = 1;
+        BSTNode<T> node = root;
+        // start at the left-most node
+        for (; node.left != null; depth++) {
+            node = node.left;
+        }
+        while (node != null) {
+            height = Math.max(height, depth);
+            if (node.right != null) {
+                node = node.right;
+                depth++;
+                for (; node.left != null; depth++) {
+                    node = node.left;
+                }
+            } else {
+                // climb until we come up from a left child
+                while (node.up != null && node.up.right == node) {
+                    node = node.up;
+                    depth--;
+                }
+                node = node.up;
+                depth--;
+            }
+        }
+        return height;
     }
 
     /**
@@ -145,6 +803,134 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         root = null;
     }
 
+    /**
+     * Writes the tree to a stream, in a form that readSnapshot can turn back
+     * into a tree of exactly the same shape.  The nodes are written in
+     * pre-order, each as a byte of flags (which children it has, its colour
+     * in a RedBlackTree, and whether it holds more than one occurrence),
+     * its count when it does, and its value.
+     * @param out the stream to write to, which is flushed but not closed
+     * @param codec converts values to bytes
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeSnapshot(OutputStream out, ElementCodec<T> codec) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeBoolean(storesColours());
+        // count the nodes, which is less than size() when there are duplicates
+        TreeTraversal<T> traversal = new TreeTraversal<>();
+        int[] nodes = { 0 };
+        traversal.preOrder(root, node -> nodes[0]++);
+        data.writeInt(nodes[0]);
+
+        traversal.preOrder(root, node -> {
+            int flags = (node.left != null ? SNAPSHOT_HAS_LEFT : 0) | (node.right != null ? SNAPSHOT_HAS_RIGHT : 0)
+                | (isRedNode(node) ? SNAPSHOT_RED : 0) | (node.count > 1 ? SNAPSHOT_COUNTED : 0);
+            data.writeByte(flags);
+            if (node.count > 1) {
+                data.writeInt(node.count);
+            }
+            codec.write(data, node.data);
+        });
+        data.flush();
+    }
+
+    /**
+     * Replaces the contents of this tree with a snapshot written by
+     * writeSnapshot.  The tree is rebuilt in linear time with exactly the
+     * shape (and colours) it was written with, without comparing values or
+     * rebalancing.  The stream is read unbuffered, so that nothing after
+     * the snapshot is consumed; pass a buffered stream for speed.
+     * @param in the stream to read from
+     * @param codec converts bytes to values
+     * @throws IOException if the stream cannot be read or does not hold a
+     * snapshot, or holds a snapshot without the colours this tree needs
+     */
+    public void readSnapshot(InputStream in, ElementCodec<T> codec) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("The stream does not hold a tree snapshot.");
+        }
+        if (!data.readBoolean() && storesColours()) {
+            throw new IOException("The snapshot has no node colours.");
+        }
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("The snapshot has a negative node count.");
+        }
+
+        // the nodes in pre-order, so every node comes before its children
+        List<BSTNode<T>> nodes = new ArrayList<>();
+        BSTNode<T> newRoot = null;
+        // the node whose left child is read next, if any
+        BSTNode<T> waitingForLeft = null;
+        // nodes whose right child is read after the left subtrees above them
+        Deque<BSTNode<T>> waitingForRight = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            int flags = data.readUnsignedByte();
+            int occurrences = (flags & SNAPSHOT_COUNTED) != 0 ? data.readInt() : 1;
+            if (occurrences < 1) {
+                throw new IOException("The snapshot has a node with " + occurrences + " occurrences.");
+            }
+            BSTNode<T> node = createNode(codec.read(data), (flags & SNAPSHOT_RED) != 0);
+            node.count = occurrences;
+            nodes.add(node);
+
+            if (i == 0) {
+                newRoot = node;
+            } else if (waitingForLeft != null) {
+                waitingForLeft.setLeft(node);
+                node.setUp(waitingForLeft);
+            } else if (!waitingForRight.isEmpty()) {
+                BSTNode<T> parent = waitingForRight.pop();
+                parent.setRight(node);
+                node.setUp(parent);
+            } else {
+                throw new IOException("The snapshot has a node without a parent.");
+            }
+            if ((flags & SNAPSHOT_HAS_RIGHT) != 0) {
+                waitingForRight.push(node);
+            }
+            waitingForLeft = (flags & SNAPSHOT_HAS_LEFT) != 0 ? node : null;
+        }
+        if (waitingForLeft != null || !waitingForRight.isEmpty()) {
+            throw new IOException("The snapshot ends before all of its nodes.");
+        }
+
+        // children come after their parents, so sizes are computed backwards
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            refresh(nodes.get(i));
+        }
+        root = newRoot;
+    }
+
+    /**
+     * Creates a node for insert and readSnapshot.  Subclasses that use
+     * their own node type override this.
+     * @param data the value of the node
+     * @param isRed whether the snapshot stored the node as red
+     * @return a new node holding data
+     */
+    protected BSTNode<T> createNode(T data, boolean isRed) {
+        return new BSTNode<>(data);
+    }
+
+    /**
+     * @param node a node of this tree
+     * @return whether writeSnapshot should store the node as red
+     */
+    protected boolean isRedNode(BSTNode<T> node) {
+        return false;
+    }
+
+    /**
+     * @return whether this tree's snapshots hold node colours, which
+     * readSnapshot then requires
+     */
+    protected boolean storesColours() {
+        return false;
+    }
+
     /**
      * Test the BST class and log results to the console.
      * @param args
@@ -173,6 +959,62 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
             System.out.println("Test 3 Failed.");
         }
 
+        System.out.println("Testing sorted input that degenerates the tree:");
+        if (dummyTree.test4()) {
+            System.out.println("Test 4 Passed.");
+        } else {
+            System.out.println("Test 4 Failed.");
+        }
+
+        System.out.println("Testing rank(), select(), and countInRange():");
+        if (dummyTree.test5()) {
+            System.out.println("Test 5 Passed.");
+        } else {
+            System.out.println("Test 5 Failed.");
+        }
+
+        System.out.println("Testing remove():");
+        if (dummyTree.test6()) {
+            System.out.println("Test 6 Passed.");
+        } else {
+            System.out.println("Test 6 Failed.");
+        }
+
+        System.out.println("Testing run-length duplicates:");
+        if (dummyTree.test7()) {
+            System.out.println("Test 7 Passed.");
+        } else {
+            System.out.println("Test 7 Failed.");
+        }
+
+        System.out.println("Testing writeSnapshot() and readSnapshot():");
+        if (dummyTree.test8()) {
+            System.out.println("Test 8 Passed.");
+        } else {
+            System.out.println("Test 8 Failed.");
+        }
+
+        System.out.println("Testing iterator():");
+        if (dummyTree.test9()) {
+            System.out.println("Test 9 Passed.");
+        } else {
+            System.out.println("Test 9 Failed.");
+        }
+
+        System.out.println("Testing floor(), ceiling(), lower(), higher(), first(), last(), and nearest():");
+        if (dummyTree.test10()) {
+            System.out.println("Test 10 Passed.");
+        } else {
+            System.out.println("Test 10 Failed.");
+        }
+
+        System.out.println("Testing enableStats(), stats(), and height():");
+        if (dummyTree.test11()) {
+            System.out.println("Test 11 Passed.");
+        } else {
+            System.out.println("Test 11 Failed.");
+        }
+
     }
 
     /**
@@ -263,5 +1105,274 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         return true;
     }
 
+    /**
+     * Test inserting and finding values in sorted order, which degenerates
+     * the BST into a linked list that is far deeper than the call stack.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test4() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        for (int i = 0; i < 20000; i++) {
+            tree.insert(i);
+        }
+
+        if (tree.size() != 20000) { return false; }
+        if (!tree.contains(0)) { return false; }
+        if (!tree.contains(19999)) { return false; }
+        if (tree.contains(20000)) { return false; }
+
+        return true;
+    }
+
+    /**
+     * Test the order statistic queries on a tree with duplicates.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test5() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        int[] values = { 50, 20, 80, 20, 10, 90, 60, 70, 30 };
+        for (int value : values) {
+            tree.insert(value);
+        }
+
+        // sorted order: 10 20 20 30 50 60 70 80 90
+        if (tree.rank(10) != 0) { return false; }
+        if (tree.rank(20) != 1) { return false; }
+        if (tree.rank(25) != 3) { return false; }
+        if (tree.rank(100) != 9) { return false; }
+        if (tree.select(0) != 10) { return false; }
+        if (tree.select(2) != 20) { return false; }
+        if (tree.select(4) != 50) { return false; }
+        if (tree.select(8) != 90) { return false; }
+        if (tree.countInRange(20, 60) != 5) { return false; }
+        if (tree.countInRange(61, 69) != 0) { return false; }
+        if (tree.countInRange(90, 10) != 0) { return false; }
+
+        try {
+            tree.select(9);
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        return true;
+    }
+
+    /**
+     * Test removing leaves, nodes with one child, nodes with two children,
+     * the root, duplicates, and values that are not in the BST.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test6() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        int[] values = { 50, 20, 80, 20, 10, 90, 60, 70, 30 };
+        for (int value : values) {
+            tree.insert(value);
+        }
+
+        if (tree.remove(40)) { return false; }
+        if (!tree.remove(10)) { return false; }
+        if (!tree.remove(60)) { return false; }
+        if (!tree.remove(20)) { return false; }
+        if (!tree.contains(20)) { return false; }
+        if (!tree.remove(50)) { return false; }
+
+        // remaining sorted order: 20 30 70 80 90
+        if (tree.size() != 5) { return false; }
+        if (tree.contains(50) || tree.contains(10) || tree.contains(60)) { return false; }
+        if (tree.select(0) != 20 || tree.select(2) != 70 || tree.select(4) != 90) { return false; }
+
+        for (int value : new int[] { 20, 30, 70, 80, 90 }) {
+            if (!tree.remove(value)) { return false; }
+        }
+        if (!tree.isEmpty()) { return false; }
+
+        return true;
+    }
+
+    /**
+     * Test that duplicates share one node, while size(), the order statistic
+     * queries, remove() and the in-order string still count each occurrence.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test7() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        tree.insert(5);
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(7);
+        }
+        tree.insert(7);
+        tree.insert(3);
+        tree.insert(3);
+
+        // sorted order: 3 3 5 7 (1001 times)
+        if (tree.size() != 1004) { return false; }
+        if (tree.root.getRight() == null || tree.root.getRight().getCount() != 1001) { return false; }
+        if (tree.root.getRight().getLeft() != null || tree.root.getRight().getRight() != null) { return false; }
+        if (tree.rank(5) != 2 || tree.rank(7) != 3 || tree.rank(8) != 1004) { return false; }
+        if (tree.select(1) != 3 || tree.select(2) != 5 || tree.select(3) != 7 || tree.select(1003) != 7) { return false; }
+        if (tree.countInRange(7, 7) != 1001) { return false; }
+
+        if (!tree.remove(3)) { return false; }
+        if (!tree.contains(3) || tree.size() != 1003) { return false; }
+        if (!tree.remove(3) || tree.contains(3)) { return false; }
+        // removing the root makes it take its successor's value and count
+        if (!tree.remove(5)) { return false; }
+        if (tree.size() != 1001 || tree.root.getCount() != 1001) { return false; }
+        for (int i = 0; i < 999; i++) {
+            tree.remove(7);
+        }
+        if (!tree.root.toInOrderString().equals("[ 7, 7 ]")) { return false; }
+
+        return true;
+    }
+
+    /**
+     * Test that a snapshot restores a tree of the same shape, sizes and
+     * duplicate counts, and that a malformed snapshot is rejected.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test8() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        int[] values = { 50, 20, 80, 20, 10, 90, 60, 70, 30, 20 };
+        for (int value : values) {
+            tree.insert(value);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            tree.writeSnapshot(bytes, ElementCodec.INTEGER);
+            BinarySearchTree<Integer> restored = new BinarySearchTree<>();
+            restored.insert(5);
+            restored.readSnapshot(new ByteArrayInputStream(bytes.toByteArray()), ElementCodec.INTEGER);
+
+            if (!restored.root.toLevelOrderString().equals(tree.root.toLevelOrderString())) { return false; }
+            if (restored.size() != 10 || restored.countInRange(20, 20) != 3) { return false; }
+            if (restored.contains(5) || restored.select(9) != 90) { return false; }
+            if (!restored.remove(50) || restored.size() != 9) { return false; }
+
+            byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 5);
+            try {
+                restored.readSnapshot(new ByteArrayInputStream(truncated), ElementCodec.INTEGER);
+                return false;
+            } catch (IOException e) {
+                // expected
+            }
+
+            bytes.reset();
+            new BinarySearchTree<Integer>().writeSnapshot(bytes, ElementCodec.INTEGER);
+            restored.readSnapshot(new ByteArrayInputStream(bytes.toByteArray()), ElementCodec.INTEGER);
+            if (!restored.isEmpty()) { return false; }
+        } catch (IOException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Test iterating over an empty BST, a BST with duplicates, and a
+     * degenerate BST far deeper than the call stack.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test9() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        if (tree.iterator().hasNext()) { return false; }
+        try {
+            tree.iterator().next();
+            return false;
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+
+        int[] values = { 50, 20, 80, 20, 10, 90, 60, 70, 30, 20 };
+        for (int value : values) {
+            tree.insert(value);
+        }
+        List<Integer> iterated = new ArrayList<>();
+        tree.forEach(iterated::add);
+        if (!iterated.equals(List.of(10, 20, 20, 20, 30, 50, 60, 70, 80, 90))) { return false; }
+
+        tree.clear();
+        for (int i = 0; i < 20000; i++) {
+            tree.insert(i);
+        }
+        int expected = 0;
+        for (int value : tree) {
+            if (value != expected++) { return false; }
+        }
+        if (expected != 20000) { return false; }
+
+        return true;
+    }
+
+    /**
+     * Test the nearest-value queries on an empty BST and on a BST with
+     * duplicates, for targets in the BST, between its values, and beyond
+     * either end.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test10() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        if (tree.floor(5) != null || tree.ceiling(5) != null || tree.nearest(5, value -> value) != null) {
+            return false;
+        }
+        try {
+            tree.first();
+            return false;
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+
+        int[] values = { 50, 20, 80, 20, 10, 90, 60, 70, 30 };
+        for (int value : values) {
+            tree.insert(value);
+        }
+        if (tree.floor(20) != 20 || tree.floor(25) != 20 || tree.floor(5) != null) { return false; }
+        if (tree.ceiling(20) != 20 || tree.ceiling(25) != 30 || tree.ceiling(95) != null) { return false; }
+        if (tree.lower(20) != 10 || tree.lower(10) != null || tree.lower(100) != 90) { return false; }
+        if (tree.higher(20) != 30 || tree.higher(90) != null || tree.higher(0) != 10) { return false; }
+        if (tree.first() != 10 || tree.last() != 90) { return false; }
+
+        if (tree.nearest(60, value -> value) != 60) { return false; }
+        if (tree.nearest(44, value -> value) != 50) { return false; }
+        if (tree.nearest(36, value -> value) != 30) { return false; }
+        // equally close to 30 and 50, so the smaller value wins
+        if (tree.nearest(40, value -> value) != 30) { return false; }
+        if (tree.nearest(-100, value -> value) != 10) { return false; }
+        if (tree.nearest(1000, value -> value) != 90) { return false; }
+
+        return true;
+    }
+
+    /**
+     * Test the counters and height of a degenerate BST, where each insert and
+     * contains compares against every value on the way down, and of a small
+     * bushy BST.
+     * @return true if all tests pass, false otherwise
+     */
+    private boolean test11() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        if (tree.height() != 0 || tree.stats().getBlackHeight() != -1) { return false; }
+
+        tree.enableStats();
+        for (int i = 0; i < 100; i++) {
+            tree.insert(i);
+        }
+        tree.contains(99);
+        TreeStats stats = tree.stats();
+        if (stats.getOperations() != 101) { return false; }
+        // inserting i compares against the i values already in the list
+        if (stats.getComparisons() != 99 * 100 / 2 + 100) { return false; }
+        if (stats.getHeight() != 100 || tree.height() != 100) { return false; }
+        if (stats.getLeftRotations() != 0 || stats.getRepairs() != 0) { return false; }
+
+        tree.clear();
+        for (int value : new int[] { 50, 20, 80, 10, 30, 90, 25 }) {
+            tree.insert(value);
+        }
+        if (tree.height() != 4) { return false; }
+
+        return true;
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class compares building a RedBlackTree from unsorted values by
+ * inserting them one at a time with building it by RedBlackTree.buildParallel.
+ * buildParallel runs on the common ForkJoinPool, so to see how it scales,
+ * run this with -Djava.util.concurrent.ForkJoinPool.common.parallelism=N for
+ * several values of N.  Run with an optional argument for the number of
+ * values (default 2,000,000).
+ */
+public class BulkBuildBenchmark {
+
+    // the number of times each build is timed, keeping the fastest
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        Random random = new Random(21);
+        List<Integer> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // about one value in three is a duplicate
+            values.add(random.nextInt(size * 2 / 3 + 1));
+        }
+
+        long insertNanos = Long.MAX_VALUE;
+        long parallelNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            RedBlackTree<Integer> inserted = new RedBlackTree<>();
+            for (int value : values) {
+                inserted.insert(value);
+            }
+            insertNanos = Math.min(insertNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            RedBlackTree<Integer> built = RedBlackTree.buildParallel(values);
+            parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+
+            if (built.size() != inserted.size()) {
+                throw new IllegalStateException("The trees hold " + built.size() + " and " + inserted.size() + " values");
+            }
+        }
+
+        System.out.printf("%d values, common pool parallelism %d: one-by-one inserts %d ms, buildParallel %d ms%n",
+            size, ForkJoinPool.getCommonPoolParallelism(), insertNanos / 1000000, parallelNanos / 1000000);
+    }
+
+}
@@ -0,0 +1,156 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * This class makes a RedBlackTree safe to share between threads, for
+ * workloads where reads vastly outnumber writes.  Writes take an exclusive
+ * lock.  contains, size and isEmpty first read the tree optimistically without
+ * locking at all, and only take a shared read lock when a write happened
+ * while they were reading.
+ */
+public class ConcurrentRedBlackTree<T extends Comparable<T>> implements SortedCollection<T> {
+
+    // the largest number of nodes an optimistic search will visit; a
+    // red-black tree of up to 2^31 values is never deeper than this, so
+    // visiting more means the search saw a write in progress
+    private static final int MAX_DEPTH = 64;
+
+    // the tree being protected, only accessed while holding or validating a stamp
+    private final RedBlackTree<T> tree;
+    // the lock guarding tree
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Creates a new, empty concurrent tree.
+     */
+    public ConcurrentRedBlackTree() { this(new RedBlackTree<>()); }
+
+    /**
+     * Creates a concurrent tree protecting an existing tree, which must not
+     * be used directly afterwards.
+     * @param tree the tree to protect
+     */
+    public ConcurrentRedBlackTree(RedBlackTree<T> tree) { this.tree = tree; }
+
+    @Override
+    public void insert(T data) throws NullPointerException {
+        long stamp = lock.writeLock();
+        try {
+            tree.insert(data);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        long stamp = lock.writeLock();
+        try {
+            return tree.remove(data);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            tree.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Check whether data is stored in the tree, without locking unless a
+     * write is in progress.
+     * @param data the value to check for in the collection
+     * @return true if the value is found, false otherwise
+     */
+    @Override
+    public boolean contains(Comparable<T> data) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int found = optimisticLookup(data);
+                if (found >= 0 && lock.validate(stamp)) {
+                    return found == 1;
+                }
+            } catch (RuntimeException e) {
+                // a write left the nodes inconsistent part way through; retry with the lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.contains(data);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Searches the tree the same way as BinarySearchTree.lookup, without
+     * trusting that the tree stays consistent during the search.
+     * @param data the value to search for
+     * @return 1 if data was found, 0 if it was not, or -1 if the search went
+     * deeper than any valid tree can be
+     */
+    private int optimisticLookup(Comparable<T> data) {
+        BSTNode<T> current = tree.root;
+        for (int depth = 0; current != null; depth++) {
+            if (depth == MAX_DEPTH) {
+                return -1;
+            }
+            T value = current.data;
+            int cmp = data.compareTo(value);
+            if (cmp == 0 && value.equals(data)) {
+                return 1;
+            }
+            current = cmp < 0 ? current.left : current.right;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of values in the tree, read without locking unless
+     * a write is in progress
+     */
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int size = tree.size();
+            if (lock.validate(stamp)) {
+                return size;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return true if the tree holds no values, read without locking unless
+     * a write is in progress
+     */
+    @Override
+    public boolean isEmpty() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean isEmpty = tree.isEmpty();
+            if (lock.validate(stamp)) {
+                return isEmpty;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.isEmpty();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+}
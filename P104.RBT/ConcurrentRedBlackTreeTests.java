@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class tests the ConcurrentRedBlackTree class with readers running
+ * while a writer changes the tree.
+ */
+public class ConcurrentRedBlackTreeTests {
+
+    /**
+     * Tests that readers always find the values that are never removed, and
+     * never see a size outside what the writer produces, while the writer
+     * keeps inserting and removing other values.
+     */
+    @Test
+    public void testReadersDuringWrites() throws InterruptedException {
+        ConcurrentRedBlackTree<Integer> tree = new ConcurrentRedBlackTree<>();
+        // even values stay in the tree for the whole test
+        for (int i = 0; i < 2000; i += 2) {
+            tree.insert(i);
+        }
+        AtomicBoolean failed = new AtomicBoolean(false);
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(() -> {
+                while (!done.get()) {
+                    for (int i = 0; i < 2000; i += 2) {
+                        if (!tree.contains(i)) {
+                            failed.set(true);
+                        }
+                    }
+                    int size = tree.size();
+                    if (size < 1000 || size > 2000 || tree.isEmpty()) {
+                        failed.set(true);
+                    }
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 1; i < 2000; i += 2) {
+                tree.insert(i);
+            }
+            for (int i = 1; i < 2000; i += 2) {
+                Assertions.assertTrue(tree.remove(i));
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(1000, tree.size());
+        Assertions.assertFalse(tree.contains(1));
+    }
+
+    /**
+     * Tests wrapping an existing tree and clearing it.
+     */
+    @Test
+    public void testWrapAndClear() {
+        RedBlackTree<String> existing = new RedBlackTree<>();
+        existing.insert("a");
+        existing.insert("b");
+        ConcurrentRedBlackTree<String> tree = new ConcurrentRedBlackTree<>(existing);
+        Assertions.assertTrue(tree.contains("b"));
+        Assertions.assertEquals(2, tree.size());
+        tree.clear();
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertFalse(tree.contains("a"));
+    }
+
+}
@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class is a thread-safe, lock-free implementation of
+ * IterableSortedCollection built on the skip list of ConcurrentSkipListSet.
+ * Any number of threads can insert, remove and search at once without
+ * blocking each other.  Iterators are weakly consistent: they never throw
+ * ConcurrentModificationException, return every value that was present for
+ * the whole iteration, and may or may not return values inserted or removed
+ * while iterating.
+ */
+public class ConcurrentSkipListCollection<T extends Comparable<T>> implements IterableSortedCollection<T> {
+
+    /**
+     * An entry of the skip list.  Duplicate values are kept as separate
+     * entries by ordering equal values by the id of the inserting thread and
+     * a counter private to that thread, so no two entries are ever ordered
+     * the same.  Search probes are entries whose value may be any
+     * Comparable&lt;T&gt;.
+     */
+    private static class Entry<T> {
+        private final Comparable<T> value;
+        private final long inserterId;
+        private final long sequence;
+        private final boolean isProbe;
+
+        private Entry(Comparable<T> value, long inserterId, long sequence, boolean isProbe) {
+            this.value = value;
+            this.inserterId = inserterId;
+            this.sequence = sequence;
+            this.isProbe = isProbe;
+        }
+    }
+
+    /**
+     * The id of a thread that inserts, and the sequence number of its next
+     * entry.  Only the thread owning it touches it.
+     */
+    private static class Inserter {
+        private final long id = nextInserterId.getAndIncrement();
+        private long sequence = 0;
+    }
+
+    // the id of the next thread to insert into any collection; thread ids
+    // can be reused once a thread ends, so they cannot tell entries apart
+    private static final AtomicLong nextInserterId = new AtomicLong();
+    // each thread's id and sequence number, so that an insert touches no
+    // shared counter once its thread has an id
+    private static final ThreadLocal<Inserter> inserter = ThreadLocal.withInitial(Inserter::new);
+
+    // the entries, ordered by value and then by inserter id and sequence number
+    private final ConcurrentSkipListSet<Entry<T>> entries = new ConcurrentSkipListSet<>(new EntryComparator<T>());
+    // the number of entries, counted in per-thread cells so updates don't contend
+    private final LongAdder size = new LongAdder();
+
+    // bounds on the values returned by iterators, null when unbounded
+    private volatile Comparable<T> iteratorMin = null;
+    private volatile Comparable<T> iteratorMax = null;
+
+    /**
+     * Orders entries by value, then by inserter id and sequence number.  A
+     * probe is always compared with a stored entry, never with another probe,
+     * so the probe's value is the one whose compareTo is called.
+     */
+    private static class EntryComparator<T> implements Comparator<Entry<T>> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Entry<T> a, Entry<T> b) {
+            int cmp = b.isProbe ? -b.value.compareTo((T) a.value) : a.value.compareTo((T) b.value);
+            // equal values are ordered by where they came from; a probe's
+            // inserter id of Long.MIN_VALUE puts it before all of them
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Long.compare(a.inserterId, b.inserterId);
+            return cmp != 0 ? cmp : Long.compare(a.sequence, b.sequence);
+        }
+    }
+
+    /**
+     * @param value the value to search for
+     * @return a probe entry ordered before every entry equal to value
+     */
+    private static <T> Entry<T> probe(Comparable<T> value) {
+        return new Entry<>(value, Long.MIN_VALUE, Long.MIN_VALUE, true);
+    }
+
+    /**
+     * Inserts a new value into the collection.  Each duplicate is stored as
+     * an entry of its own, among the equal entries already there.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        Inserter thread = inserter.get();
+        if (entries.add(new Entry<>(data, thread.id, thread.sequence++, false))) {
+            size.increment();
+        }
+    }
+
+    /**
+     * Check whether data is stored in the collection.
+     * @param data the value to check for in the collection
+     * @return true if the value is found, false otherwise
+     */
+    @Override
+    public boolean contains(Comparable<T> data) {
+        return findEntry(data) != null;
+    }
+
+    /**
+     * Removes one occurrence of a value from the collection.
+     * @param data the value being removed
+     * @return true if a value was removed, false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        // another thread may remove the entry we found first, so keep looking
+        for (Entry<T> entry = findEntry(data); entry != null; entry = findEntry(data)) {
+            if (entries.remove(entry)) {
+                size.decrement();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param data the value to search for
+     * @return an entry holding data, using the same test as
+     * BinarySearchTree.lookup, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<T> findEntry(Comparable<T> data) {
+        for (Entry<T> entry = entries.ceiling(probe(data)); entry != null; entry = entries.higher(entry)) {
+            if (data.compareTo((T) entry.value) != 0) {
+                return null;
+            }
+            if (entry.value.equals(data)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of values in the collection, which is exact unless
+     * other threads are modifying it at the same time
+     */
+    @Override
+    public int size() {
+        return size.intValue();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Removes every value from the collection.  Values inserted by other
+     * threads while this runs may or may not be removed.
+     */
+    @Override
+    public void clear() {
+        while (entries.pollFirst() != null) {
+            size.decrement();
+        }
+    }
+
+    @Override
+    public void setIteratorMin(Comparable<T> min) {
+        this.iteratorMin = min;
+    }
+
+    @Override
+    public void setIteratorMax(Comparable<T> max) {
+        this.iteratorMax = max;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the values of the collection
+     * in ascending order, from the iterator min to the iterator max inclusive
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Comparable<T> min = iteratorMin;
+        Comparable<T> max = iteratorMax;
+        NavigableSet<Entry<T>> range = min == null ? entries : entries.tailSet(probe(min));
+        Iterator<Entry<T>> entryIterator = range.iterator();
+        return new Iterator<T>() {
+            // the next value to return, or null once past the end or the max
+            private T next = advance();
+
+            @SuppressWarnings("unchecked")
+            private T advance() {
+                if (!entryIterator.hasNext()) {
+                    return null;
+                }
+                T value = (T) entryIterator.next().value;
+                return max == null || max.compareTo(value) >= 0 ? value : null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                T value = next;
+                next = advance();
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Tests inserts from several threads at once, including duplicates.
+     */
+    @Test
+    public void testConcurrentInserts() throws InterruptedException {
+        ConcurrentSkipListCollection<Integer> collection = new ConcurrentSkipListCollection<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    collection.insert(i);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assertions.assertEquals(20000, collection.size());
+        int expected = 0;
+        int copies = 0;
+        for (int value : collection) {
+            Assertions.assertEquals(expected, value);
+            if (++copies == 4) {
+                expected++;
+                copies = 0;
+            }
+        }
+        Assertions.assertEquals(5000, expected);
+    }
+
+    /**
+     * Tests inserting the same value from many threads that each insert
+     * once and end, so that later threads may be given the ids of earlier
+     * ones.
+     */
+    @Test
+    public void testDuplicatesFromShortLivedThreads() throws InterruptedException {
+        ConcurrentSkipListCollection<Integer> collection = new ConcurrentSkipListCollection<>();
+        for (int t = 0; t < 200; t++) {
+            Thread thread = new Thread(() -> collection.insert(7));
+            thread.start();
+            thread.join();
+        }
+
+        Assertions.assertEquals(200, collection.size());
+        int copies = 0;
+        for (int value : collection) {
+            Assertions.assertEquals(7, value);
+            copies++;
+        }
+        Assertions.assertEquals(200, copies);
+        for (int t = 0; t < 200; t++) {
+            Assertions.assertTrue(collection.remove(7));
+        }
+        Assertions.assertFalse(collection.contains(7));
+        Assertions.assertEquals(0, collection.size());
+    }
+
+    /**
+     * Tests removing duplicates one at a time and iterating between bounds.
+     */
+    @Test
+    public void testRemoveAndIteratorBounds() {
+        ConcurrentSkipListCollection<String> collection = new ConcurrentSkipListCollection<>();
+        for (String value : new String[] { "d", "b", "c", "b", "a", "e" }) {
+            collection.insert(value);
+        }
+        collection.setIteratorMin("b");
+        collection.setIteratorMax("d");
+        List<String> values = new ArrayList<>();
+        collection.forEach(values::add);
+        Assertions.assertEquals(List.of("b", "b", "c", "d"), values);
+
+        Assertions.assertTrue(collection.remove("b"));
+        Assertions.assertTrue(collection.contains("b"));
+        Assertions.assertTrue(collection.remove("b"));
+        Assertions.assertFalse(collection.contains("b"));
+        Assertions.assertFalse(collection.remove("b"));
+        Assertions.assertEquals(4, collection.size());
+
+        collection.clear();
+        Assertions.assertTrue(collection.isEmpty());
+        Assertions.assertEquals(0, collection.size());
+    }
+
+}
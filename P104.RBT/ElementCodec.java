@@ -0,0 +1,49 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * This interface converts the values of a collection to and from bytes, so
+ * that the collection can store them on disk.
+ */
+public interface ElementCodec<T> {
+
+    /**
+     * A codec for Integer values, as four bytes each.
+     */
+    ElementCodec<Integer> INTEGER = new ElementCodec<>() {
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException { out.writeInt(value); }
+
+        @Override
+        public Integer read(DataInput in) throws IOException { return in.readInt(); }
+    };
+
+    /**
+     * A codec for String values, in modified UTF-8 with a length prefix.
+     */
+    ElementCodec<String> STRING = new ElementCodec<>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException { out.writeUTF(value); }
+
+        @Override
+        public String read(DataInput in) throws IOException { return in.readUTF(); }
+    };
+
+    /**
+     * Writes a value.
+     * @param out the output to write to
+     * @param value the value to write, never null
+     * @throws IOException if the output cannot be written
+     */
+    void write(DataOutput out, T value) throws IOException;
+
+    /**
+     * Reads a value written by write.
+     * @param in the input to read from
+     * @return the value read
+     * @throws IOException if the input cannot be read or is malformed
+     */
+    T read(DataInput in) throws IOException;
+
+}
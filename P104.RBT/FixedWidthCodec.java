@@ -0,0 +1,143 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This interface is an ElementCodec whose values always take the same number
+ * of bytes, so that they can be stored in fixed size slots of a page.  The
+ * ByteBuffer methods read and write a slot in place; their default versions
+ * go through the DataInput and DataOutput methods, and codecs for simple
+ * types override them to avoid copying.
+ */
+public interface FixedWidthCodec<T> extends ElementCodec<T> {
+
+    /**
+     * A codec for Integer values, as four bytes each.
+     */
+    FixedWidthCodec<Integer> INTEGER = new FixedWidthCodec<>() {
+        @Override
+        public int width() { return Integer.BYTES; }
+
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException { out.writeInt(value); }
+
+        @Override
+        public Integer read(DataInput in) throws IOException { return in.readInt(); }
+
+        @Override
+        public void write(ByteBuffer buffer, int index, Integer value) { buffer.putInt(index, value); }
+
+        @Override
+        public Integer read(ByteBuffer buffer, int index) { return buffer.getInt(index); }
+    };
+
+    /**
+     * A codec for Long values, as eight bytes each.
+     */
+    FixedWidthCodec<Long> LONG = new FixedWidthCodec<>() {
+        @Override
+        public int width() { return Long.BYTES; }
+
+        @Override
+        public void write(DataOutput out, Long value) throws IOException { out.writeLong(value); }
+
+        @Override
+        public Long read(DataInput in) throws IOException { return in.readLong(); }
+
+        @Override
+        public void write(ByteBuffer buffer, int index, Long value) { buffer.putLong(index, value); }
+
+        @Override
+        public Long read(ByteBuffer buffer, int index) { return buffer.getLong(index); }
+    };
+
+    /**
+     * Creates a codec for String values of up to maxBytes bytes in UTF-8,
+     * which stores each string as its length followed by its bytes, padded
+     * with zeros to the full width.
+     * @param maxBytes the largest number of UTF-8 bytes a string may take
+     * @return a codec taking maxBytes + 2 bytes per value
+     * @throws IllegalArgumentException if maxBytes is negative or more than 65535
+     */
+    static FixedWidthCodec<String> string(int maxBytes) throws IllegalArgumentException {
+        if (maxBytes < 0 || maxBytes > 0xffff) {
+            throw new IllegalArgumentException("The maximum length must be from 0 to 65535 bytes: " + maxBytes);
+        }
+        return new FixedWidthCodec<>() {
+            @Override
+            public int width() { return maxBytes + 2; }
+
+            @Override
+            public void write(DataOutput out, String value) throws IOException {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes) {
+                    throw new IllegalArgumentException("The value " + value + " takes more than " + maxBytes + " bytes.");
+                }
+                out.writeShort(bytes.length);
+                out.write(bytes);
+                out.write(new byte[maxBytes - bytes.length]);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                byte[] bytes = new byte[in.readUnsignedShort()];
+                in.readFully(bytes);
+                in.skipBytes(maxBytes - bytes.length);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * @return the number of bytes every value takes
+     */
+    int width();
+
+    /**
+     * Writes a value into width() bytes of a buffer, without changing the
+     * buffer's position.
+     * @param buffer the buffer to write to
+     * @param index the position of the value's first byte
+     * @param value the value to write, never null
+     * @throws IllegalArgumentException if the value takes more than width() bytes
+     */
+    default void write(ByteBuffer buffer, int index, T value) throws IllegalArgumentException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(width());
+        try {
+            write(new DataOutputStream(bytes), value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (bytes.size() > width()) {
+            throw new IllegalArgumentException("The value " + value + " takes more than " + width() + " bytes.");
+        }
+        // pad a shorter value with zeros, so no stale bytes are left in the slot
+        buffer.put(index, Arrays.copyOf(bytes.toByteArray(), width()));
+    }
+
+    /**
+     * Reads a value written by write(ByteBuffer, int, Object), without
+     * changing the buffer's position.
+     * @param buffer the buffer to read from
+     * @param index the position of the value's first byte
+     * @return the value read
+     */
+    default T read(ByteBuffer buffer, int index) {
+        byte[] bytes = new byte[width()];
+        buffer.get(index, bytes);
+        try {
+            return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,404 @@
+import java.util.Arrays;
+
+/**
+ * This class holds the shape of a red-black tree in int-indexed arrays
+ * instead of node objects: node i of the tree is described by the i-th entry
+ * of parallel arrays holding the indices of its parent and children, plus the
+ * i-th bit of a colour bitset.  Subclasses store the values in their own
+ * array indexed the same way, and search it to find where to insert.
+ */
+public abstract class IndexedRedBlackTree {
+
+    // index 0 stands in for every null reference; it is never used for a
+    // value and is always black, so the repair loops need no null checks
+    protected static final int NIL = 0;
+
+    protected static final int DEFAULT_CAPACITY = 16;
+
+    // index of each node's left child, right child and parent
+    protected int[] left;
+    protected int[] right;
+    protected int[] parent;
+    // bit i is set when node i is red
+    protected long[] red;
+
+    // index of the root node, or NIL when the tree is empty
+    protected int root = NIL;
+    // number of values stored in the tree
+    protected int size = 0;
+    // lowest index that has never held a node
+    private int nextUnused = 1;
+    // first index of a removed node that can be reused, chained through the left array
+    private int freeList = NIL;
+
+    /**
+     * Creates an empty tree with room for DEFAULT_CAPACITY - 1 nodes.
+     */
+    protected IndexedRedBlackTree() {
+        left = new int[DEFAULT_CAPACITY];
+        right = new int[DEFAULT_CAPACITY];
+        parent = new int[DEFAULT_CAPACITY];
+        red = new long[(DEFAULT_CAPACITY + 63) >>> 6];
+    }
+
+    /**
+     * Copies the value of one node into another.
+     * @param from the index of the node whose value is copied
+     * @param to the index of the node that receives the value
+     */
+    protected abstract void moveKey(int from, int to);
+
+    /**
+     * Forgets the value of a node that has been removed from the tree.
+     * @param node the index of the removed node
+     */
+    protected abstract void releaseKey(int node);
+
+    /**
+     * Makes the value array at least length entries long.
+     * @param length the new number of indices
+     */
+    protected abstract void growKeys(int length);
+
+    /**
+     * @return the number of values in the tree, including duplicates
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the tree holds no values, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from the tree, keeping the allocated arrays.
+     */
+    public void clear() {
+        for (int node = 1; node < nextUnused; node++) {
+            releaseKey(node);
+        }
+        root = NIL;
+        size = 0;
+        nextUnused = 1;
+        freeList = NIL;
+        Arrays.fill(red, 0L);
+    }
+
+    /**
+     * Takes the index for a new red node, reusing a removed node's index if
+     * there is one and growing the arrays if needed.  The caller stores the
+     * node's value and links it in with linkLeaf.
+     * @return the index of the new node
+     */
+    protected int allocate() {
+        int node;
+        if (freeList != NIL) {
+            node = freeList;
+            freeList = left[node];
+        } else {
+            if (nextUnused == left.length) {
+                grow();
+            }
+            node = nextUnused++;
+        }
+        left[node] = NIL;
+        right[node] = NIL;
+        setRed(node, true);
+        return node;
+    }
+
+    /**
+     * Doubles the length of every array.
+     */
+    private void grow() {
+        int length = left.length * 2;
+        growKeys(length);
+        left = Arrays.copyOf(left, length);
+        right = Arrays.copyOf(right, length);
+        parent = Arrays.copyOf(parent, length);
+        red = Arrays.copyOf(red, (length + 63) >>> 6);
+    }
+
+    /**
+     * Links a new node below up and repairs the red property.
+     * @param node the index of the new node
+     * @param up the index of its parent, or NIL if the tree is empty
+     * @param isLeft true to make node the left child of up, false for the right
+     */
+    protected void linkLeaf(int node, int up, boolean isLeft) {
+        parent[node] = up;
+        if (up == NIL) {
+            root = node;
+        } else if (isLeft) {
+            left[up] = node;
+        } else {
+            right[up] = node;
+        }
+        size++;
+        ensureRedProperty(node);
+    }
+
+    /**
+     * @param node the index of a node
+     * @return the index of the node with the smallest value in node's subtree
+     */
+    protected int minimum(int node) {
+        while (left[node] != NIL) {
+            node = left[node];
+        }
+        return node;
+    }
+
+    /**
+     * @param node the index of a node
+     * @return the index of the node that follows node in sorted order, or NIL
+     */
+    protected int successor(int node) {
+        if (right[node] != NIL) {
+            return minimum(right[node]);
+        }
+        int up = parent[node];
+        while (up != NIL && node == right[up]) {
+            node = up;
+            up = parent[up];
+        }
+        return up;
+    }
+
+    /**
+     * @param node the index of a node, or NIL
+     * @return true if the node is red, false if it is black
+     */
+    protected boolean isRed(int node) {
+        return (red[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+     * Colours a node red or black.
+     * @param node the index of the node
+     * @param isRed true to colour the node red, false for black
+     */
+    protected void setRed(int node, boolean isRed) {
+        if (isRed) {
+            red[node >>> 6] |= 1L << node;
+        } else {
+            red[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    /**
+     * Moves node's right child into node's position and node into its left
+     * subtree.
+     * @param node the index of a node with a right child
+     */
+    private void rotateLeft(int node) {
+        int child = right[node];
+        right[node] = left[child];
+        if (left[child] != NIL) {
+            parent[left[child]] = node;
+        }
+        replaceChild(node, child);
+        left[child] = node;
+        parent[node] = child;
+    }
+
+    /**
+     * Moves node's left child into node's position and node into its right
+     * subtree.
+     * @param node the index of a node with a left child
+     */
+    private void rotateRight(int node) {
+        int child = left[node];
+        left[node] = right[child];
+        if (right[child] != NIL) {
+            parent[right[child]] = node;
+        }
+        replaceChild(node, child);
+        right[child] = node;
+        parent[node] = child;
+    }
+
+    /**
+     * Puts replacement where node is in the tree: as the root, or as the
+     * matching child of node's parent.
+     * @param node the index of the node being replaced
+     * @param replacement the index of the node taking its place, may be NIL
+     */
+    private void replaceChild(int node, int replacement) {
+        int up = parent[node];
+        // NIL's parent is set too, so a removal's repair loop can start from NIL
+        parent[replacement] = up;
+        if (up == NIL) {
+            root = replacement;
+        } else if (node == left[up]) {
+            left[up] = replacement;
+        } else {
+            right[up] = replacement;
+        }
+    }
+
+    /**
+     * Repairs the red property violation a new red node may cause, in the
+     * same way as RedBlackTree.ensureRedProperty.
+     * @param node the index of the new red node
+     */
+    private void ensureRedProperty(int node) {
+        while (isRed(parent[node])) {
+            int up = parent[node];
+            int grandparent = parent[up];
+            if (up == left[grandparent]) {
+                int aunt = right[grandparent];
+                if (isRed(aunt)) {
+                    setRed(up, false);
+                    setRed(aunt, false);
+                    setRed(grandparent, true);
+                    node = grandparent;
+                    continue;
+                }
+                if (node == right[up]) {
+                    rotateLeft(up);
+                    up = node;
+                }
+                rotateRight(grandparent);
+            } else {
+                int aunt = left[grandparent];
+                if (isRed(aunt)) {
+                    setRed(up, false);
+                    setRed(aunt, false);
+                    setRed(grandparent, true);
+                    node = grandparent;
+                    continue;
+                }
+                if (node == left[up]) {
+                    rotateRight(up);
+                    up = node;
+                }
+                rotateLeft(grandparent);
+            }
+            setRed(up, false);
+            setRed(grandparent, true);
+            break;
+        }
+        setRed(root, false);
+    }
+
+    /**
+     * Unlinks a node from the tree and repairs the black property, in the
+     * same way as RedBlackTree.removeNode, then frees its index.
+     * @param node the index of the node to remove
+     */
+    protected void removeAt(int node) {
+        // A node with two children takes its successor's value, and the
+        // successor (which has no left child) is unlinked instead.
+        if (left[node] != NIL && right[node] != NIL) {
+            int successor = minimum(right[node]);
+            moveKey(successor, node);
+            node = successor;
+        }
+        int child = left[node] != NIL ? left[node] : right[node];
+        replaceChild(node, child);
+        if (!isRed(node)) {
+            ensureBlackProperty(child);
+        }
+        setRed(node, false);
+        releaseKey(node);
+        left[node] = freeList;
+        freeList = node;
+        size--;
+    }
+
+    /**
+     * Repairs the missing black on every path through node, in the same way
+     * as RedBlackTree.ensureBlackProperty.
+     * @param node the index of the double black node, possibly NIL with its
+     *     parent entry set
+     */
+    private void ensureBlackProperty(int node) {
+        while (node != root && !isRed(node)) {
+            int up = parent[node];
+            if (node == left[up]) {
+                int sibling = right[up];
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(up, true);
+                    rotateLeft(up);
+                    sibling = right[up];
+                }
+                if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+                    setRed(sibling, true);
+                    node = up;
+                    continue;
+                }
+                if (!isRed(right[sibling])) {
+                    setRed(left[sibling], false);
+                    setRed(sibling, true);
+                    rotateRight(sibling);
+                    sibling = right[up];
+                }
+                setRed(sibling, isRed(up));
+                setRed(up, false);
+                setRed(right[sibling], false);
+                rotateLeft(up);
+            } else {
+                int sibling = left[up];
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(up, true);
+                    rotateRight(up);
+                    sibling = left[up];
+                }
+                if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+                    setRed(sibling, true);
+                    node = up;
+                    continue;
+                }
+                if (!isRed(left[sibling])) {
+                    setRed(right[sibling], false);
+                    setRed(sibling, true);
+                    rotateLeft(sibling);
+                    sibling = left[up];
+                }
+                setRed(sibling, isRed(up));
+                setRed(up, false);
+                setRed(left[sibling], false);
+                rotateRight(up);
+            }
+            node = root;
+        }
+        setRed(node, false);
+    }
+
+    /**
+     * Checks that the subtree rooted at node has no red node with a red
+     * child, correct parent indices, and equal black counts on every path.
+     * Used by the tests.
+     * @param node the index of the subtree's root
+     * @return the number of black nodes on each path through the subtree
+     * @throws IllegalStateException if the subtree is not valid
+     */
+    protected int blackHeight(int node) throws IllegalStateException {
+        if (node == NIL) {
+            return 0;
+        }
+        for (int child : new int[] { left[node], right[node] }) {
+            if (child != NIL) {
+                if (parent[child] != node) {
+                    throw new IllegalStateException("A child does not point back at its parent.");
+                }
+                if (isRed(node) && isRed(child)) {
+                    throw new IllegalStateException("A red node has a red child.");
+                }
+            }
+        }
+        int height = blackHeight(left[node]);
+        if (height != blackHeight(right[node])) {
+            throw new IllegalStateException("Paths have different numbers of black nodes.");
+        }
+        return height + (isRed(node) ? 0 : 1);
+    }
+
+}
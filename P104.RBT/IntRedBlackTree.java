@@ -0,0 +1,181 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class is a red-black tree of int values with the same insert, contains,
+ * remove, size and iteration behaviour as a RedBlackTree&lt;Integer&gt;. Instead of
+ * one node object per value, node i of the tree is described by the i-th entry
+ * of an int array of values and of the arrays of IndexedRedBlackTree.  The int
+ * methods never box.
+ */
+public class IntRedBlackTree extends IndexedRedBlackTree
+        implements SortedCollection<Integer>, Iterable<Integer> {
+
+    // value stored in each node
+    private int[] keys = new int[DEFAULT_CAPACITY];
+
+    /**
+     * Inserts a new value into the tree.  Unlike BinarySearchTree, which
+     * counts the occurrences of a value in one node, each duplicate gets a
+     * node of its own, stored in the left subtree of an equal value.
+     * @param data the new value being inserted
+     */
+    public void insert(int data) {
+        int up = NIL;
+        int current = root;
+        while (current != NIL) {
+            up = current;
+            current = data <= keys[current] ? left[current] : right[current];
+        }
+        int node = allocate();
+        keys[node] = data;
+        linkLeaf(node, up, up != NIL && data <= keys[up]);
+    }
+
+    /**
+     * Check whether data is stored in the tree.
+     * @param data the value to check for
+     * @return true if the tree contains data one or more times, false otherwise
+     */
+    public boolean contains(int data) {
+        return find(data) != NIL;
+    }
+
+    /**
+     * Removes one occurrence of data from the tree.
+     * @param data the value being removed
+     * @return true if a value was removed, false if the tree did not contain data
+     */
+    public boolean remove(int data) {
+        int node = find(data);
+        if (node == NIL) {
+            return false;
+        }
+        removeAt(node);
+        return true;
+    }
+
+    @Override
+    public void insert(Integer data) throws NullPointerException {
+        insert(data.intValue());
+    }
+
+    @Override
+    public boolean contains(Comparable<Integer> data) {
+        // an Integer only equals another Integer, as in BinarySearchTree.lookup
+        return data instanceof Integer && contains(((Integer) data).intValue());
+    }
+
+    @Override
+    public boolean remove(Integer data) throws NullPointerException {
+        return remove(data.intValue());
+    }
+
+    /**
+     * @return an iterator over the values of the tree in ascending order,
+     * with each duplicate returned separately; nextInt() returns values
+     * without boxing them
+     */
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int next = root == NIL ? NIL : minimum(root);
+
+            @Override
+            public boolean hasNext() {
+                return next != NIL;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next == NIL) {
+                    throw new NoSuchElementException();
+                }
+                int value = keys[next];
+                next = successor(next);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * @param data the value to search for
+     * @return the index of a node holding data, or NIL if there is none
+     */
+    private int find(int data) {
+        int current = root;
+        while (current != NIL && keys[current] != data) {
+            current = data < keys[current] ? left[current] : right[current];
+        }
+        return current;
+    }
+
+    @Override
+    protected void moveKey(int from, int to) {
+        keys[to] = keys[from];
+    }
+
+    @Override
+    protected void releaseKey(int node) {
+        // ints hold no references, so there is nothing to forget
+    }
+
+    @Override
+    protected void growKeys(int length) {
+        keys = Arrays.copyOf(keys, length);
+    }
+
+    /**
+     * Tests inserts, duplicates, removals and contains against a TreeMap
+     * of counts, checking the red-black properties along the way.
+     */
+    @Test
+    public void testIntRBTAgainstTreeMap() {
+        IntRedBlackTree tree = new IntRedBlackTree();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random(400);
+        for (int i = 0; i < 5000; i++) {
+            int value = random.nextInt(200) - 100;
+            if (random.nextInt(3) > 0) {
+                tree.insert(value);
+                expected.merge(value, 1, Integer::sum);
+            } else {
+                Assertions.assertEquals(expected.containsKey(value), tree.remove(value));
+                expected.computeIfPresent(value, (key, count) -> count == 1 ? null : count - 1);
+            }
+            Assertions.assertEquals(expected.containsKey(value), tree.contains(value));
+            if (i % 100 == 0) {
+                Assertions.assertFalse(tree.isRed(tree.root));
+                tree.blackHeight(tree.root);
+            }
+        }
+        int total = expected.values().stream().mapToInt(Integer::intValue).sum();
+        Assertions.assertEquals(total, tree.size());
+    }
+
+    /**
+     * Tests that iteration returns every value, duplicates included, in order.
+     */
+    @Test
+    public void testIntRBTIterator() {
+        IntRedBlackTree tree = new IntRedBlackTree();
+        int[] values = { 5, -3, 12, 5, 0, 7, 5, 99 };
+        for (int value : values) {
+            tree.insert(value);
+        }
+        Arrays.sort(values);
+        PrimitiveIterator.OfInt iterator = tree.iterator();
+        for (int value : values) {
+            Assertions.assertEquals(value, iterator.nextInt());
+        }
+        Assertions.assertFalse(iterator.hasNext());
+        tree.clear();
+        Assertions.assertFalse(tree.iterator().hasNext());
+    }
+
+}
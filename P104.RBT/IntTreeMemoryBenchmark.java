@@ -0,0 +1,52 @@
+import java.util.Random;
+
+/**
+ * This class compares the heap used per value by a RedBlackTree&lt;Integer&gt;
+ * and an IntRedBlackTree holding the same random values.  Run with an
+ * optional argument for the number of values (default 1,000,000).
+ */
+public class IntTreeMemoryBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int[] values = new Random(5).ints(size).toArray();
+
+        long before = usedMemory();
+        RedBlackTree<Integer> boxedTree = new RedBlackTree<>();
+        for (int value : values) {
+            boxedTree.insert(value);
+        }
+        long boxedBytes = usedMemory() - before;
+        System.out.printf("RedBlackTree<Integer>: %d values, %.1f bytes per value%n",
+            boxedTree.size(), (double) boxedBytes / size);
+        boxedTree = null;
+
+        before = usedMemory();
+        IntRedBlackTree intTree = new IntRedBlackTree();
+        for (int value : values) {
+            intTree.insert(value);
+        }
+        long intBytes = usedMemory() - before;
+        System.out.printf("IntRedBlackTree:       %d values, %.1f bytes per value%n",
+            intTree.size(), (double) intBytes / size);
+    }
+
+    /**
+     * Runs the garbage collector until the used heap stops shrinking.
+     * @return the number of bytes of heap in use
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+}
@@ -0,0 +1,1096 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is a log-structured merge (LSM) implementation of
+ * IterableSortedCollection, for collections that do not fit in memory.
+ * Inserts go to an in-memory RedBlackTree (the memtable), and removes of
+ * values that are not in the memtable are recorded in a second tree of
+ * tombstones.  When the two trees together pass a size limit, a background
+ * thread writes them to an immutable, sorted run file in the collection's
+ * directory.  Each run holds one (value, count change) record per distinct
+ * value, plus a sparse index of every INDEX_INTERVAL-th value, which is the
+ * only part of a run kept in memory.  Runs are compacted in size tiers:
+ * once the newest MERGE_WIDTH or more runs are of similar size, the
+ * background thread merges them into one run, dropping values whose count
+ * changes cancel out, and leaves the older, larger runs alone.  Each record
+ * is then rewritten about once per tier, a number of times that grows with
+ * the logarithm of the collection's size.
+ *
+ * Runs survive close() and are found again when the same directory is
+ * reopened.  All methods are thread-safe.
+ */
+public class LsmSortedCollection<T extends Comparable<T>> implements IterableSortedCollection<T>, Closeable {
+
+    /**
+     * The default number of values and tombstones held in memory before
+     * they are written to a run.
+     */
+    public static final int DEFAULT_MEMTABLE_LIMIT = 65536;
+
+    // the number of records between the values kept in a run's sparse index
+    private static final int INDEX_INTERVAL = 128;
+    // the number of runs of similar size that are merged into one run
+    private static final int MERGE_WIDTH = 4;
+    // runs are of similar size when none holds more than SIZE_RATIO times
+    // the records of the smallest, counting runs smaller than a memtable
+    // as a memtable's size
+    private static final int SIZE_RATIO = 2;
+    // run files are named after the range of run ids they contain
+    private static final Pattern RUN_NAME = Pattern.compile("run-(\\d+)-(\\d+)\\.lsm");
+
+    // the directory holding the run files
+    private final Path directory;
+    // converts values to and from the bytes of the run files
+    private final ElementCodec<T> codec;
+    // the number of values and tombstones in memory that triggers a flush
+    private final int memtableLimit;
+    // the single thread writing and merging runs
+    private final ExecutorService background = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "LsmSortedCollection compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the fields below are guarded by this collection's monitor
+
+    // values inserted since the last flush, and removed values that were not in memtable
+    private RedBlackTree<T> memtable = new RedBlackTree<>();
+    private RedBlackTree<T> tombstones = new RedBlackTree<>();
+    // the trees being written to a run by the background thread, or null;
+    // never changed once they are being written
+    private RedBlackTree<T> flushingMemtable = null;
+    private RedBlackTree<T> flushingTombstones = null;
+    // the runs, oldest first; the list is replaced rather than changed
+    private List<Run<T>> runs = new ArrayList<>();
+    // the id of the next run to be flushed
+    private long nextRunId = 0;
+    // the number of values in the collection
+    private long size = 0;
+    // the iterators that still hold runs open
+    private final Set<MergeIterator> openIterators = new HashSet<>();
+    // the first exception thrown by the background thread, or null
+    private Exception failure = null;
+    private boolean isClosed = false;
+
+    // bounds on the values returned by iterators, null when unbounded
+    private Comparable<T> iteratorMin = null;
+    private Comparable<T> iteratorMax = null;
+
+    /**
+     * Opens the collection stored in a directory, creating the directory
+     * if it does not exist, with the default memtable limit.
+     * @param directory the directory holding the run files
+     * @param codec converts values to and from bytes
+     * @throws IOException if the directory or its run files cannot be read
+     */
+    public LsmSortedCollection(Path directory, ElementCodec<T> codec) throws IOException {
+        this(directory, codec, DEFAULT_MEMTABLE_LIMIT);
+    }
+
+    /**
+     * Opens the collection stored in a directory, creating the directory
+     * if it does not exist.
+     * @param directory the directory holding the run files
+     * @param codec converts values to and from bytes
+     * @param memtableLimit the number of values and tombstones held in
+     *     memory before they are written to a run
+     * @throws IOException if the directory or its run files cannot be read
+     * @throws IllegalArgumentException if memtableLimit is less than 1
+     */
+    public LsmSortedCollection(Path directory, ElementCodec<T> codec, int memtableLimit)
+            throws IOException, IllegalArgumentException {
+        if (memtableLimit < 1) {
+            throw new IllegalArgumentException("The memtable limit must be at least 1: " + memtableLimit);
+        }
+        this.directory = directory;
+        this.codec = codec;
+        this.memtableLimit = memtableLimit;
+        Files.createDirectories(directory);
+        openRuns();
+    }
+
+    /**
+     * Opens the run files in the directory.  A run left behind by a merge
+     * that was interrupted before it could delete its inputs covers a range
+     * of run ids inside the merged run's range, and is deleted.
+     */
+    private void openRuns() throws IOException {
+        List<Run<T>> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "run-*")) {
+            for (Path file : files) {
+                Matcher name = RUN_NAME.matcher(file.getFileName().toString());
+                if (name.matches()) {
+                    found.add(new Run<>(file, Long.parseLong(name.group(1)), Long.parseLong(name.group(2)), codec));
+                } else {
+                    // an unfinished run file
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Run<T> run : found) {
+                run.release();
+            }
+            throw e;
+        }
+
+        found.sort(Comparator.comparingLong((Run<T> run) -> run.firstId)
+            .thenComparing(Comparator.comparingLong((Run<T> run) -> run.lastId).reversed()));
+        long lastId = -1;
+        for (Run<T> run : found) {
+            if (run.lastId <= lastId) {
+                run.retire();
+            } else {
+                runs.add(run);
+                size += run.countSum;
+                lastId = run.lastId;
+            }
+        }
+        nextRunId = lastId + 1;
+    }
+
+    /**
+     * Inserts a new value into the memtable, flushing the memtable when it
+     * is full.  Duplicate values are allowed.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public synchronized void insert(T data) throws NullPointerException {
+        checkOpen();
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        memtable.insert(data);
+        size++;
+        flushIfFull();
+    }
+
+    /**
+     * Removes one occurrence of a value.  An occurrence in the memtable is
+     * removed directly; otherwise a tombstone cancels an occurrence in a run.
+     * @param data the value being removed
+     * @return true if a value was removed, false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public synchronized boolean remove(T data) throws NullPointerException {
+        checkOpen();
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        if (count(data) <= 0) {
+            return false;
+        }
+        if (memtable.contains(data)) {
+            memtable.remove(data);
+        } else {
+            tombstones.insert(data);
+        }
+        size--;
+        flushIfFull();
+        return true;
+    }
+
+    /**
+     * Check whether data is stored in the collection.  This reads at most
+     * one block of INDEX_INTERVAL records from each run.
+     * @param data the value to check for in the collection
+     * @return true if the value is found, false otherwise
+     */
+    @Override
+    public synchronized boolean contains(Comparable<T> data) {
+        checkOpen();
+        return count(data) > 0;
+    }
+
+    /**
+     * @param data the value to count
+     * @return the number of occurrences of data in the collection
+     */
+    private long count(Comparable<T> data) {
+        long count = countIn(memtable, data) - countIn(tombstones, data);
+        if (flushingMemtable != null) {
+            count += countIn(flushingMemtable, data) - countIn(flushingTombstones, data);
+        }
+        try {
+            for (Run<T> run : runs) {
+                count += run.count(data);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    /**
+     * @param tree a tree to search
+     * @param data the value to count
+     * @return the number of occurrences of data in tree
+     */
+    private static <T extends Comparable<T>> int countIn(RedBlackTree<T> tree, Comparable<T> data) {
+        BSTNode<T> node = tree.lookup(tree.root, data);
+        return node == null ? 0 : node.getCount();
+    }
+
+    @Override
+    public synchronized int size() {
+        checkOpen();
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        checkOpen();
+        return size == 0;
+    }
+
+    /**
+     * Removes every value from the collection, deleting its run files.
+     */
+    @Override
+    public synchronized void clear() {
+        checkOpen();
+        awaitFlush();
+        memtable = new RedBlackTree<>();
+        tombstones = new RedBlackTree<>();
+        try {
+            for (Run<T> run : runs) {
+                run.retire();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            runs = new ArrayList<>();
+        }
+        size = 0;
+    }
+
+    @Override
+    public synchronized void setIteratorMin(Comparable<T> min) {
+        this.iteratorMin = min;
+    }
+
+    @Override
+    public synchronized void setIteratorMax(Comparable<T> max) {
+        this.iteratorMax = max;
+    }
+
+    /**
+     * Returns an iterator over the values of the collection in ascending
+     * order, from the iterator min to the iterator max inclusive.  It merges
+     * a copy of the memtable's values in that range with the runs, reading
+     * each run from the index block holding the min.  The iterator sees the
+     * collection as it was when it was created, and keeps its runs open
+     * until it has returned its last value or is closed, so a caller that
+     * stops early should close it.  Closing the collection closes any
+     * iterators still open.
+     * @return an iterator over the values in the collection
+     */
+    @Override
+    public ValueIterator<T> iterator() {
+        Comparable<T> min;
+        Comparable<T> max;
+        List<Cursor<T>> sources = new ArrayList<>();
+        List<Run<T>> openRuns;
+        synchronized (this) {
+            checkOpen();
+            min = iteratorMin;
+            max = iteratorMax;
+            // the memtable keeps changing, so copy the values in range
+            sources.add(copyRange(memtable, min, max, 1));
+            sources.add(copyRange(tombstones, min, max, -1));
+            if (flushingMemtable != null) {
+                sources.add(new TreeCursor<>(flushingMemtable.root, min, 1));
+                sources.add(new TreeCursor<>(flushingTombstones.root, min, -1));
+            }
+            openRuns = runs;
+            for (Run<T> run : openRuns) {
+                run.acquire();
+            }
+        }
+        try {
+            for (Run<T> run : openRuns) {
+                sources.add(new RunCursor<>(run, min));
+            }
+            MergeIterator iterator = new MergeIterator(new MergeCursor<>(sources), max, openRuns);
+            synchronized (this) {
+                if (!isClosed) {
+                    openIterators.add(iterator);
+                    return iterator;
+                }
+            }
+            iterator.close();
+            throw new IllegalStateException("The collection is closed.");
+        } catch (IOException e) {
+            release(openRuns);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes any values still in memory to a run, waits for the background
+     * thread to finish, and closes the run files.  The collection cannot be
+     * used afterwards.
+     * @throws IOException if a run could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            if (failure == null && !(memtable.isEmpty() && tombstones.isEmpty())) {
+                awaitFlush();
+                startFlush();
+            }
+            isClosed = true;
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a flush to finish.");
+        }
+        synchronized (this) {
+            List<Run<T>> closing = runs;
+            runs = new ArrayList<>();
+            UncheckedIOException failed = null;
+            for (MergeIterator iterator : new ArrayList<>(openIterators)) {
+                try {
+                    iterator.abandon();
+                } catch (UncheckedIOException e) {
+                    failed = e;
+                }
+            }
+            try {
+                release(closing);
+            } catch (UncheckedIOException e) {
+                failed = e;
+            }
+            if (failed != null) {
+                throw failed.getCause();
+            }
+            if (failure != null) {
+                throw new IOException("A background flush or merge failed.", failure);
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the collection is closed, or the
+     * background thread failed
+     */
+    private void checkOpen() throws IllegalStateException {
+        if (isClosed) {
+            throw new IllegalStateException("The collection is closed.");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("A background flush or merge failed.", failure);
+        }
+    }
+
+    /**
+     * Starts a flush when the memtable and tombstones are full, first
+     * waiting for any earlier flush, which bounds the memory used.
+     */
+    private void flushIfFull() {
+        if (memtable.size() + tombstones.size() >= memtableLimit) {
+            awaitFlush();
+            startFlush();
+        }
+    }
+
+    /**
+     * Waits until no flush is in progress.
+     * @throws IllegalStateException if interrupted, or the flush failed
+     */
+    private void awaitFlush() throws IllegalStateException {
+        while (flushingMemtable != null && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a flush to finish.", e);
+            }
+        }
+        checkOpen();
+    }
+
+    /**
+     * Hands the memtable and tombstones to the background thread to write,
+     * and starts new, empty ones.
+     */
+    private void startFlush() {
+        RedBlackTree<T> inserted = memtable;
+        RedBlackTree<T> removed = tombstones;
+        long id = nextRunId++;
+        flushingMemtable = inserted;
+        flushingTombstones = removed;
+        memtable = new RedBlackTree<>();
+        tombstones = new RedBlackTree<>();
+        background.execute(() -> flush(inserted, removed, id));
+    }
+
+    /**
+     * Writes a full memtable and its tombstones to a new run, then merges
+     * runs for as long as a size tier is full.  Runs on the background
+     * thread.
+     */
+    private void flush(RedBlackTree<T> inserted, RedBlackTree<T> removed, long id) {
+        try {
+            Run<T> run = writeRun(new MergeCursor<>(List.of(new TreeCursor<>(inserted.root, null, 1),
+                new TreeCursor<>(removed.root, null, -1))), id, id);
+            List<Run<T>> merging;
+            synchronized (this) {
+                List<Run<T>> next = new ArrayList<>(runs);
+                next.add(run);
+                runs = next;
+                flushingMemtable = null;
+                flushingTombstones = null;
+                notifyAll();
+                merging = acquireTier();
+            }
+            // a merged run can fill the tier above it
+            while (merging != null) {
+                merge(merging);
+                synchronized (this) {
+                    merging = acquireTier();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Finds the newest runs that are of similar size, going back from the
+     * newest run until one holds more than SIZE_RATIO times the records of
+     * the smallest run found so far.  Called holding this collection's
+     * monitor.
+     * @return those runs, oldest first and acquired for a merge, when there
+     * are at least MERGE_WIDTH of them, or null otherwise
+     */
+    private List<Run<T>> acquireTier() {
+        long smallest = Long.MAX_VALUE;
+        int first = runs.size();
+        while (first > 0) {
+            long records = Math.max(runs.get(first - 1).recordCount, memtableLimit);
+            if (smallest != Long.MAX_VALUE && records > SIZE_RATIO * smallest) {
+                break;
+            }
+            smallest = Math.min(smallest, records);
+            first--;
+        }
+        if (runs.size() - first < MERGE_WIDTH) {
+            return null;
+        }
+        List<Run<T>> tier = new ArrayList<>(runs.subList(first, runs.size()));
+        for (Run<T> run : tier) {
+            run.acquire();
+        }
+        return tier;
+    }
+
+    /**
+     * Merges consecutive runs into one run, which takes their place unless
+     * the collection was cleared in the meantime.  Runs on the background
+     * thread.
+     * @param merging consecutive runs of the collection, oldest first,
+     *     acquired by the caller
+     */
+    private void merge(List<Run<T>> merging) throws IOException {
+        try {
+            List<Cursor<T>> sources = new ArrayList<>();
+            for (Run<T> run : merging) {
+                sources.add(new RunCursor<>(run, null));
+            }
+            Run<T> merged = writeRun(new MergeCursor<>(sources), merging.get(0).firstId,
+                merging.get(merging.size() - 1).lastId);
+            synchronized (this) {
+                int first = runs.indexOf(merging.get(0));
+                if (first >= 0 && first + merging.size() <= runs.size()
+                        && runs.subList(first, first + merging.size()).equals(merging)) {
+                    List<Run<T>> next = new ArrayList<>(runs.subList(0, first));
+                    next.add(merged);
+                    next.addAll(runs.subList(first + merging.size(), runs.size()));
+                    runs = next;
+                    for (Run<T> run : merging) {
+                        run.retire();
+                    }
+                } else {
+                    merged.retire();
+                }
+            }
+        } finally {
+            release(merging);
+        }
+    }
+
+    /**
+     * Writes records to a new run file.  The file is written under a
+     * temporary name and renamed once complete, so a run file that exists
+     * is always whole.
+     * @param records the records to write, in ascending order of value
+     * @param firstId the id of the oldest run the records come from
+     * @param lastId the id of the newest run the records come from
+     * @return the new run
+     */
+    private Run<T> writeRun(Cursor<T> records, long firstId, long lastId) throws IOException {
+        Path path = directory.resolve(String.format("run-%019d-%019d.lsm", firstId, lastId));
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        List<T> indexValues = new ArrayList<>();
+        long[] indexOffsets = new long[16];
+        int recordCount = 0;
+        long countSum = 0;
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16)) {
+            // each record is encoded into buffer first, to track the file offset
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            long offset = 0;
+            while (records.next()) {
+                if (recordCount % INDEX_INTERVAL == 0) {
+                    if (indexValues.size() == indexOffsets.length) {
+                        indexOffsets = Arrays.copyOf(indexOffsets, indexOffsets.length * 2);
+                    }
+                    indexOffsets[indexValues.size()] = offset;
+                    indexValues.add(records.value);
+                }
+                buffer.reset();
+                codec.write(out, records.value);
+                out.writeInt(records.change);
+                buffer.writeTo(file);
+                offset += buffer.size();
+                recordCount++;
+                countSum += records.change;
+            }
+
+            // the footer holds the sparse index, and ends with its own offset
+            buffer.reset();
+            out.writeInt(recordCount);
+            out.writeLong(countSum);
+            out.writeInt(indexValues.size());
+            for (int i = 0; i < indexValues.size(); i++) {
+                codec.write(out, indexValues.get(i));
+                out.writeLong(indexOffsets[i]);
+            }
+            out.writeLong(offset);
+            buffer.writeTo(file);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        return new Run<>(path, firstId, lastId, codec);
+    }
+
+    /**
+     * @param tree a tree that may change after this returns
+     * @param min the smallest value to copy, or null
+     * @param max the largest value to copy, or null
+     * @param sign 1 to copy the tree's values, or -1 to copy them as tombstones
+     * @return a cursor over a copy of the tree's records from min to max
+     */
+    private static <T extends Comparable<T>> Cursor<T> copyRange(RedBlackTree<T> tree, Comparable<T> min,
+            Comparable<T> max, int sign) {
+        ArrayCursor<T> copy = new ArrayCursor<>();
+        TreeCursor<T> cursor = new TreeCursor<>(tree.root, min, sign);
+        while (cursor.next() && (max == null || max.compareTo(cursor.value) >= 0)) {
+            copy.add(cursor.value, cursor.change);
+        }
+        return copy;
+    }
+
+    /**
+     * @param openRuns runs to release, continuing past failures
+     * @throws UncheckedIOException if a run file could not be closed or deleted
+     */
+    private static <T> void release(List<Run<T>> openRuns) throws UncheckedIOException {
+        IOException failed = null;
+        for (Run<T> run : openRuns) {
+            try {
+                run.release();
+            } catch (IOException e) {
+                failed = e;
+            }
+        }
+        if (failed != null) {
+            throw new UncheckedIOException(failed);
+        }
+    }
+
+    /**
+     * @return the number of records in each run, oldest first.  Used by
+     * the tests.
+     */
+    synchronized List<Integer> runSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (Run<T> run : runs) {
+            sizes.add(run.recordCount);
+        }
+        return sizes;
+    }
+
+    /**
+     * An iterator over the values of an LsmSortedCollection, which holds
+     * the collection's run files open until it has returned its last value
+     * or is closed.
+     */
+    public interface ValueIterator<T> extends Iterator<T>, Closeable {
+        /**
+         * Releases the run files the iterator reads, after which it returns
+         * no more values.  Closing it again has no effect.
+         * @throws UncheckedIOException if a run file could not be closed or
+         *     deleted
+         */
+        @Override
+        void close() throws UncheckedIOException;
+    }
+
+    /**
+     * An immutable run file: records of a value and the change in its count,
+     * in ascending order of value, followed by a footer holding the sparse
+     * index.  A run stays open while it is referenced by the collection or
+     * by an iterator or merge reading it, and a retired run's file is
+     * deleted once the last reference is released.
+     */
+    private static class Run<T> {
+        private final Path path;
+        private final long firstId;
+        private final long lastId;
+        private final ElementCodec<T> codec;
+        private final FileChannel channel;
+        private final int recordCount;
+        // the sum of the count changes of all records
+        private final long countSum;
+        // the value and file offset of every INDEX_INTERVAL-th record
+        private final List<T> indexValues = new ArrayList<>();
+        private final long[] indexOffsets;
+        // guarded by this run's monitor
+        private int references = 1;
+        private boolean isRetired = false;
+
+        private Run(Path path, long firstId, long lastId, ElementCodec<T> codec) throws IOException {
+            this.path = path;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.codec = codec;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long footer = open(channel.size() - Long.BYTES).readLong();
+                DataInputStream in = open(footer);
+                recordCount = in.readInt();
+                countSum = in.readLong();
+                indexOffsets = new long[in.readInt()];
+                for (int i = 0; i < indexOffsets.length; i++) {
+                    indexValues.add(codec.read(in));
+                    indexOffsets[i] = in.readLong();
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @param offset a position in the file
+         * @return a buffered input reading the file from offset
+         */
+        private DataInputStream open(long offset) {
+            return new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel, offset)));
+        }
+
+        /**
+         * @param data a value
+         * @return the index of the last index block whose first value is
+         * less than data, or 0 if there is none; no record equal to data
+         * comes before that block
+         */
+        private int findBlock(Comparable<T> data) {
+            int low = 0;
+            int high = indexValues.size() - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (data.compareTo(indexValues.get(middle)) > 0) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @param data the value to count
+         * @return the sum of the count changes this run records for data
+         */
+        private long count(Comparable<T> data) throws IOException {
+            long count = 0;
+            RunCursor<T> cursor = new RunCursor<>(this, data);
+            while (cursor.next() && data.compareTo(cursor.value) == 0) {
+                if (cursor.value.equals(data)) {
+                    count += cursor.change;
+                }
+            }
+            return count;
+        }
+
+        private synchronized void acquire() {
+            references++;
+        }
+
+        private synchronized void release() throws IOException {
+            if (--references == 0) {
+                channel.close();
+                if (isRetired) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+
+        /**
+         * Releases the collection's reference, deleting the file once no
+         * iterator or merge is reading it.
+         */
+        private synchronized void retire() throws IOException {
+            isRetired = true;
+            release();
+        }
+    }
+
+    /**
+     * Reads a file channel from a position, using positional reads so that
+     * any number of streams can read the same channel at once.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+
+        private ChannelInputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, length), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * A position in a sorted sequence of records, each a value and the
+     * change it makes to that value's count.
+     */
+    private abstract static class Cursor<T> {
+        // the current record, once next has returned true
+        protected T value;
+        protected int change;
+
+        /**
+         * Moves to the next record.
+         * @return true if there was one, false at the end of the records
+         */
+        protected abstract boolean next() throws IOException;
+    }
+
+    /**
+     * A cursor over the nodes of a tree that no longer changes.
+     */
+    private static class TreeCursor<T> extends Cursor<T> {
+        // the nodes whose value and right subtree are still to be visited
+        private final Deque<BSTNode<T>> stack = new ArrayDeque<>();
+        private final int sign;
+
+        /**
+         * @param root the root of the tree
+         * @param min the smallest value to visit, or null
+         * @param sign 1 to visit the values as inserts, -1 as tombstones
+         */
+        private TreeCursor(BSTNode<T> root, Comparable<T> min, int sign) {
+            this.sign = sign;
+            BSTNode<T> node = root;
+            while (node != null) {
+                if (min != null && min.compareTo(node.getData()) > 0) {
+                    node = node.getRight();
+                } else {
+                    stack.push(node);
+                    node = node.getLeft();
+                }
+            }
+        }
+
+        @Override
+        protected boolean next() {
+            if (stack.isEmpty()) {
+                return false;
+            }
+            BSTNode<T> node = stack.pop();
+            for (BSTNode<T> child = node.getRight(); child != null; child = child.getLeft()) {
+                stack.push(child);
+            }
+            value = node.getData();
+            change = sign * node.getCount();
+            return true;
+        }
+    }
+
+    /**
+     * A cursor over records copied into arrays.
+     */
+    private static class ArrayCursor<T> extends Cursor<T> {
+        private final List<T> values = new ArrayList<>();
+        private int[] changes = new int[16];
+        private int next = 0;
+
+        private void add(T value, int change) {
+            if (values.size() == changes.length) {
+                changes = Arrays.copyOf(changes, changes.length * 2);
+            }
+            changes[values.size()] = change;
+            values.add(value);
+        }
+
+        @Override
+        protected boolean next() {
+            if (next == values.size()) {
+                return false;
+            }
+            value = values.get(next);
+            change = changes[next++];
+            return true;
+        }
+    }
+
+    /**
+     * A cursor over the records of a run, starting from a minimum value.
+     */
+    private static class RunCursor<T> extends Cursor<T> {
+        private final Run<T> run;
+        // the smallest value to return, or null once one has been returned
+        private Comparable<T> min;
+        // the input, opened on the first call to next
+        private DataInputStream in = null;
+        private int remaining;
+
+        private RunCursor(Run<T> run, Comparable<T> min) {
+            this.run = run;
+            this.min = min;
+        }
+
+        @Override
+        protected boolean next() throws IOException {
+            if (in == null) {
+                if (run.recordCount == 0) {
+                    return false;
+                }
+                int block = min == null ? 0 : run.findBlock(min);
+                remaining = run.recordCount - block * INDEX_INTERVAL;
+                in = run.open(run.indexOffsets[block]);
+            }
+            while (remaining > 0) {
+                remaining--;
+                value = run.codec.read(in);
+                change = in.readInt();
+                if (min == null || min.compareTo(value) <= 0) {
+                    min = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A cursor merging several cursors.  Records of equal values are
+     * combined into one record with the sum of their count changes, and
+     * records whose changes cancel out are skipped.
+     */
+    private static class MergeCursor<T extends Comparable<T>> extends Cursor<T> {
+        // the sources that have a current record, ordered by it
+        private final PriorityQueue<Cursor<T>> sources = new PriorityQueue<>(
+            (a, b) -> a.value.compareTo(b.value));
+        // the combined records of the values that compare equal to the last
+        // value returned, which need not all be equal to each other
+        private final List<T> groupValues = new ArrayList<>();
+        private final List<Integer> groupChanges = new ArrayList<>();
+        private int groupNext = 0;
+
+        private MergeCursor(List<Cursor<T>> cursors) throws IOException {
+            for (Cursor<T> cursor : cursors) {
+                if (cursor.next()) {
+                    sources.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        protected boolean next() throws IOException {
+            while (true) {
+                while (groupNext < groupValues.size()) {
+                    value = groupValues.get(groupNext);
+                    change = groupChanges.get(groupNext++);
+                    if (change != 0) {
+                        return true;
+                    }
+                }
+                if (sources.isEmpty()) {
+                    return false;
+                }
+                nextGroup();
+            }
+        }
+
+        /**
+         * Takes every record that compares equal to the smallest current
+         * record from the sources, combining records of equal values.
+         */
+        private void nextGroup() throws IOException {
+            groupValues.clear();
+            groupChanges.clear();
+            groupNext = 0;
+            T smallest = sources.peek().value;
+            while (!sources.isEmpty() && sources.peek().value.compareTo(smallest) == 0) {
+                Cursor<T> source = sources.poll();
+                int i = 0;
+                while (i < groupValues.size() && !groupValues.get(i).equals(source.value)) {
+                    i++;
+                }
+                if (i == groupValues.size()) {
+                    groupValues.add(source.value);
+                    groupChanges.add(source.change);
+                } else {
+                    groupChanges.set(i, groupChanges.get(i) + source.change);
+                }
+                if (source.next()) {
+                    sources.add(source);
+                }
+            }
+        }
+    }
+
+    /**
+     * An iterator returning each value of a merge as many times as it
+     * occurs, up to a maximum, which releases its runs when it is done or
+     * closed.
+     */
+    private class MergeIterator implements ValueIterator<T> {
+        private final MergeCursor<T> cursor;
+        private final Comparable<T> max;
+        private final List<Run<T>> openRuns;
+        // the number of times the cursor's value is still to be returned
+        private int remaining = 0;
+        // set, holding the collection's monitor, once the runs are released
+        private volatile boolean isDone = false;
+        // set when the collection was closed while the iterator was open
+        private volatile boolean isAbandoned = false;
+
+        private MergeIterator(MergeCursor<T> cursor, Comparable<T> max, List<Run<T>> openRuns) {
+            this.cursor = cursor;
+            this.max = max;
+            this.openRuns = openRuns;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (isAbandoned) {
+                throw new IllegalStateException("The collection is closed.");
+            }
+            while (remaining == 0 && !isDone) {
+                boolean hasRecord;
+                try {
+                    hasRecord = cursor.next();
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
+                }
+                if (!hasRecord || (max != null && max.compareTo(cursor.value) < 0)) {
+                    close();
+                } else {
+                    remaining = Math.max(0, cursor.change);
+                }
+            }
+            return remaining > 0;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return cursor.value;
+        }
+
+        @Override
+        public void close() throws UncheckedIOException {
+            synchronized (LsmSortedCollection.this) {
+                if (isDone) {
+                    return;
+                }
+                isDone = true;
+                remaining = 0;
+                openIterators.remove(this);
+            }
+            release(openRuns);
+        }
+
+        /**
+         * Closes the iterator because the collection is being closed, so
+         * that using it afterwards throws IllegalStateException.
+         */
+        private void abandon() throws UncheckedIOException {
+            isAbandoned = true;
+            close();
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This class tests the LsmSortedCollection class, using a small memtable
+ * limit so that the tests flush and merge many runs.
+ */
+public class LsmSortedCollectionTests {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests random inserts and removes, including duplicates, against a
+     * RedBlackTree, and that the values are all still there after reopening.
+     */
+    @Test
+    public void testMatchesRedBlackTree() throws IOException {
+        RedBlackTree<Integer> expected = new RedBlackTree<>();
+        Random random = new Random(12);
+        try (LsmSortedCollection<Integer> collection = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 50)) {
+            for (int i = 0; i < 5000; i++) {
+                int value = random.nextInt(500);
+                if (random.nextInt(3) == 0) {
+                    Assertions.assertEquals(expected.remove(value), collection.remove(value));
+                } else {
+                    expected.insert(value);
+                    collection.insert(value);
+                }
+            }
+            Assertions.assertEquals(expected.size(), collection.size());
+            assertSameValues(expected, collection);
+        }
+
+        try (LsmSortedCollection<Integer> collection = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 50)) {
+            Assertions.assertEquals(expected.size(), collection.size());
+            for (int value = 0; value < 500; value++) {
+                Assertions.assertEquals(expected.contains(value), collection.contains(value));
+            }
+            assertSameValues(expected, collection);
+        }
+    }
+
+    /**
+     * Tests iterating between bounds over values spread across runs and the
+     * memtable, with removes recorded as tombstones.
+     */
+    @Test
+    public void testIteratorBounds() throws IOException {
+        try (LsmSortedCollection<String> collection = new LsmSortedCollection<>(directory, ElementCodec.STRING, 4)) {
+            for (String value : new String[] { "d", "b", "c", "b", "a", "e", "f", "c", "g" }) {
+                collection.insert(value);
+            }
+            Assertions.assertTrue(collection.remove("c"));
+            Assertions.assertTrue(collection.remove("a"));
+            Assertions.assertFalse(collection.remove("a"));
+
+            collection.setIteratorMin("b");
+            collection.setIteratorMax("e");
+            List<String> values = new ArrayList<>();
+            collection.forEach(values::add);
+            Assertions.assertEquals(List.of("b", "b", "c", "d", "e"), values);
+
+            collection.setIteratorMin(null);
+            collection.setIteratorMax(null);
+            Iterator<String> iterator = collection.iterator();
+            // the iterator sees the collection as it was when it was created
+            collection.insert("a");
+            values.clear();
+            iterator.forEachRemaining(values::add);
+            Assertions.assertEquals(List.of("b", "b", "c", "d", "e", "f", "g"), values);
+            Assertions.assertEquals(8, collection.size());
+        }
+    }
+
+    /**
+     * Tests clearing, closing, and the arguments that are not allowed.
+     */
+    @Test
+    public void testClearAndClose() throws IOException {
+        LsmSortedCollection<Integer> collection = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 10);
+        for (int i = 0; i < 100; i++) {
+            collection.insert(i);
+        }
+        collection.clear();
+        Assertions.assertTrue(collection.isEmpty());
+        Assertions.assertFalse(collection.contains(5));
+        Assertions.assertFalse(collection.iterator().hasNext());
+        Assertions.assertThrows(NullPointerException.class, () -> collection.insert(null));
+        collection.insert(7);
+        collection.close();
+        Assertions.assertThrows(IllegalStateException.class, () -> collection.insert(8));
+
+        try (LsmSortedCollection<Integer> reopened = new LsmSortedCollection<>(directory, ElementCodec.INTEGER)) {
+            Assertions.assertEquals(1, reopened.size());
+            Assertions.assertTrue(reopened.contains(7));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 0));
+    }
+
+    /**
+     * Tests that runs are merged in size tiers: sixteen memtables of
+     * distinct values become one run, and later runs are merged among
+     * themselves without rewriting it.
+     */
+    @Test
+    public void testTieredCompaction() throws IOException {
+        try (LsmSortedCollection<Integer> collection = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 50)) {
+            for (int i = 0; i < 16 * 50; i++) {
+                collection.insert(i);
+            }
+        }
+        try (LsmSortedCollection<Integer> collection = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 50)) {
+            Assertions.assertEquals(List.of(800), collection.runSizes());
+            for (int i = 0; i < 7 * 50; i++) {
+                collection.insert(-1 - i);
+            }
+        }
+        try (LsmSortedCollection<Integer> collection = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 50)) {
+            Assertions.assertEquals(List.of(800, 200, 50, 50, 50), collection.runSizes());
+            Assertions.assertEquals(16 * 50 + 7 * 50, collection.size());
+            try (Stream<Path> files = Files.list(directory)) {
+                Assertions.assertTrue(files.anyMatch(
+                    file -> file.getFileName().toString().equals(String.format("run-%019d-%019d.lsm", 0, 15))));
+            }
+        }
+    }
+
+    /**
+     * Tests that an iterator abandoned part way through releases its runs
+     * when it is closed, or when the collection is closed, so that the
+     * files of runs merged away in the meantime are deleted.
+     */
+    @Test
+    public void testClosingIterators() throws IOException {
+        LsmSortedCollection<Integer> collection = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 10);
+        for (int i = 0; i < 30; i++) {
+            collection.insert(i);
+        }
+        LsmSortedCollection.ValueIterator<Integer> closed = collection.iterator();
+        Assertions.assertEquals(0, closed.next());
+        LsmSortedCollection.ValueIterator<Integer> abandoned = collection.iterator();
+        Assertions.assertEquals(0, abandoned.next());
+        closed.close();
+        Assertions.assertFalse(closed.hasNext());
+        for (int i = 30; i < 100; i++) {
+            collection.insert(i);
+        }
+        collection.close();
+        Assertions.assertThrows(IllegalStateException.class, abandoned::hasNext);
+
+        long files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.count();
+        }
+        try (LsmSortedCollection<Integer> reopened = new LsmSortedCollection<>(directory, ElementCodec.INTEGER, 10)) {
+            Assertions.assertEquals(files, reopened.runSizes().size());
+            Assertions.assertEquals(100, reopened.size());
+        }
+    }
+
+    /**
+     * Asserts that a collection iterates over the same values as a tree.
+     */
+    private static void assertSameValues(RedBlackTree<Integer> expected, LsmSortedCollection<Integer> collection) {
+        int index = 0;
+        for (int value : collection) {
+            Assertions.assertEquals(expected.select(index++), value);
+        }
+        Assertions.assertEquals(expected.size(), index);
+    }
+
+}
@@ -0,0 +1,635 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is an implementation of IterableSortedCollection stored in a
+ * file as a B+tree of fixed size pages.  The file is memory-mapped, so
+ * opening an existing collection takes constant time, and a search or
+ * iteration only pages in the nodes it touches.  Values are stored with a
+ * FixedWidthCodec.  Each distinct value is stored once in a leaf together
+ * with its number of occurrences, so the values' compareTo must be
+ * consistent with equals.
+ *
+ * Leaves are linked in ascending order for iteration.  Removing a value's
+ * last occurrence only deletes it from its leaf: nodes are never merged, so
+ * leaves may become sparse or empty until new values fill them again.
+ *
+ * This class is not thread-safe, and changes are only guaranteed to reach
+ * the disk after flush() or close().
+ */
+public class MappedBPlusTree<T extends Comparable<T>> implements IterableSortedCollection<T>, Closeable {
+
+    // the size of every page, which holds either the file header or one node
+    private static final int PAGE_SIZE = 4096;
+    // the file is mapped in segments of this many pages
+    private static final int SEGMENT_SHIFT = 12;
+    private static final int PAGES_PER_SEGMENT = 1 << SEGMENT_SHIFT;
+    // marks a file as one of these trees
+    private static final int MAGIC = 0x42505431;
+    // page 0 holds the header, so it never refers to a node
+    private static final int NO_PAGE = 0;
+    // no path from the root to a leaf is longer than this
+    private static final int MAX_HEIGHT = 32;
+
+    // offsets of the header fields in page 0
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_PAGE_SIZE = 4;
+    private static final int HEADER_KEY_WIDTH = 8;
+    private static final int HEADER_ROOT = 12;
+    private static final int HEADER_PAGE_COUNT = 16;
+    private static final int HEADER_SIZE = 24;
+
+    // offsets of the fields of a node page; a leaf holds count entries of
+    // a key and its number of occurrences, and an internal node holds
+    // count keys and count + 1 child page numbers
+    private static final int NODE_TYPE = 0;
+    private static final int NODE_COUNT = 4;
+    private static final int NODE_NEXT_LEAF = 8;
+    private static final int NODE_ENTRIES = 16;
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+
+    private final FileChannel channel;
+    private final FixedWidthCodec<T> codec;
+    // the number of bytes of each key
+    private final int keyWidth;
+    // the number of bytes of each leaf entry: a key and an int count
+    private final int entryWidth;
+    // the largest number of entries in a leaf, and of keys in an internal node
+    private final int leafCapacity;
+    private final int internalCapacity;
+    // the mapped segments of the file, in order
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    // bounds on the values returned by iterators, null when unbounded
+    private Comparable<T> iteratorMin = null;
+    private Comparable<T> iteratorMax = null;
+
+    /**
+     * Opens the tree stored in a file, creating an empty tree if the file
+     * does not exist or is empty.
+     * @param file the file holding the tree
+     * @param codec converts values to and from bytes; must be the codec the
+     *     tree was created with
+     * @throws IOException if the file cannot be opened, or does not hold a
+     * tree with keys of the codec's width
+     * @throws IllegalArgumentException if the codec's values do not fit
+     * at least four to a page
+     */
+    public MappedBPlusTree(Path file, FixedWidthCodec<T> codec) throws IOException, IllegalArgumentException {
+        this.codec = codec;
+        this.keyWidth = codec.width();
+        this.entryWidth = keyWidth + Integer.BYTES;
+        this.leafCapacity = (PAGE_SIZE - NODE_ENTRIES) / entryWidth;
+        this.internalCapacity = (PAGE_SIZE - NODE_ENTRIES - Integer.BYTES) / (keyWidth + Integer.BYTES);
+        if (keyWidth < 1 || internalCapacity < 4) {
+            throw new IllegalArgumentException("Values of " + keyWidth + " bytes do not fit four to a page.");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long length = channel.size();
+            if (length == 0) {
+                mapSegment();
+                ByteBuffer header = segments.get(0);
+                header.putInt(HEADER_MAGIC, MAGIC);
+                header.putInt(HEADER_PAGE_SIZE, PAGE_SIZE);
+                header.putInt(HEADER_KEY_WIDTH, keyWidth);
+                clear();
+            } else {
+                // a tree file always holds whole segments, so this also
+                // avoids growing a file of another kind by mapping it
+                if (length % ((long) PAGES_PER_SEGMENT * PAGE_SIZE) != 0) {
+                    throw new IOException(file + " does not hold a B+tree.");
+                }
+                while ((long) segments.size() * PAGES_PER_SEGMENT * PAGE_SIZE < length) {
+                    mapSegment();
+                }
+                ByteBuffer header = segments.get(0);
+                if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_PAGE_SIZE) != PAGE_SIZE) {
+                    throw new IOException(file + " does not hold a B+tree.");
+                }
+                if (header.getInt(HEADER_KEY_WIDTH) != keyWidth) {
+                    throw new IOException(file + " holds keys of " + header.getInt(HEADER_KEY_WIDTH)
+                        + " bytes, but the codec's are " + keyWidth + " bytes.");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the next segment of the file, which grows the file if needed.
+     */
+    private void mapSegment() throws IOException {
+        long start = (long) segments.size() * PAGES_PER_SEGMENT * PAGE_SIZE;
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, (long) PAGES_PER_SEGMENT * PAGE_SIZE));
+    }
+
+    /**
+     * @param page a page number
+     * @return the mapped segment holding the page
+     */
+    private ByteBuffer segment(int page) {
+        return segments.get(page >>> SEGMENT_SHIFT);
+    }
+
+    /**
+     * @param page a page number
+     * @return the offset of the page's first byte within its segment
+     */
+    private static int base(int page) {
+        return (page & (PAGES_PER_SEGMENT - 1)) * PAGE_SIZE;
+    }
+
+    private int root() { return segments.get(0).getInt(HEADER_ROOT); }
+
+    private long storedSize() { return segments.get(0).getLong(HEADER_SIZE); }
+
+    private void setStoredSize(long size) { segments.get(0).putLong(HEADER_SIZE, size); }
+
+    private boolean isLeaf(int page) { return segment(page).get(base(page) + NODE_TYPE) == LEAF; }
+
+    private int count(int page) { return segment(page).getInt(base(page) + NODE_COUNT); }
+
+    private void setCount(int page, int count) { segment(page).putInt(base(page) + NODE_COUNT, count); }
+
+    private int nextLeaf(int page) { return segment(page).getInt(base(page) + NODE_NEXT_LEAF); }
+
+    private void setNextLeaf(int page, int next) { segment(page).putInt(base(page) + NODE_NEXT_LEAF, next); }
+
+    /**
+     * @return the offset within its segment of entry i of a leaf
+     */
+    private int entry(int page, int i) { return base(page) + NODE_ENTRIES + i * entryWidth; }
+
+    private T leafKey(int page, int i) { return codec.read(segment(page), entry(page, i)); }
+
+    private int occurrences(int page, int i) { return segment(page).getInt(entry(page, i) + keyWidth); }
+
+    private void setOccurrences(int page, int i, int count) {
+        segment(page).putInt(entry(page, i) + keyWidth, count);
+    }
+
+    /**
+     * @return the offset within its segment of child i of an internal node
+     */
+    private int child(int page, int i) { return base(page) + NODE_ENTRIES + i * Integer.BYTES; }
+
+    /**
+     * @return the offset within its segment of key i of an internal node
+     */
+    private int key(int page, int i) {
+        return base(page) + NODE_ENTRIES + (internalCapacity + 1) * Integer.BYTES + i * keyWidth;
+    }
+
+    private int childPage(int page, int i) { return segment(page).getInt(child(page, i)); }
+
+    /**
+     * Appends a new, empty node to the file.
+     * @param type LEAF or INTERNAL
+     * @return the new node's page number
+     */
+    private int allocate(byte type) {
+        ByteBuffer header = segments.get(0);
+        int page = header.getInt(HEADER_PAGE_COUNT);
+        if (page == Integer.MAX_VALUE) {
+            throw new IllegalStateException("The file has no page numbers left.");
+        }
+        if (page >>> SEGMENT_SHIFT == segments.size()) {
+            try {
+                mapSegment();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        header.putInt(HEADER_PAGE_COUNT, page + 1);
+        ByteBuffer segment = segment(page);
+        segment.put(base(page) + NODE_TYPE, type);
+        segment.putInt(base(page) + NODE_COUNT, 0);
+        segment.putInt(base(page) + NODE_NEXT_LEAF, NO_PAGE);
+        return page;
+    }
+
+    /**
+     * @param page an internal node
+     * @param data a value
+     * @return the index of the child whose subtree would hold data: the
+     * number of the node's keys that are less than or equal to data
+     */
+    private int childIndex(int page, Comparable<T> data) {
+        ByteBuffer segment = segment(page);
+        int low = 0;
+        int high = count(page);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (data.compareTo(codec.read(segment, key(page, middle))) >= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param page a leaf
+     * @param data a value
+     * @return the index of the leaf's first entry greater than or equal to data
+     */
+    private int lowerBound(int page, Comparable<T> data) {
+        int low = 0;
+        int high = count(page);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (data.compareTo(leafKey(page, middle)) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param data a value
+     * @return the leaf whose key range includes data
+     */
+    private int findLeaf(Comparable<T> data) {
+        int page = root();
+        while (!isLeaf(page)) {
+            page = childPage(page, childIndex(page, data));
+        }
+        return page;
+    }
+
+    /**
+     * Inserts a new value, or adds one to the occurrences of an equal
+     * value.  A full leaf is split in two, and the first key of the new
+     * right leaf is added to the parent, splitting full ancestors in turn.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     * @throws IllegalArgumentException if the codec cannot fit data in its width
+     */
+    @Override
+    public void insert(T data) throws NullPointerException, IllegalArgumentException {
+        checkOpen();
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        // the internal nodes on the path to the leaf, and the child taken from each
+        int[] path = new int[MAX_HEIGHT];
+        int[] childIndexes = new int[MAX_HEIGHT];
+        int depth = 0;
+        int page = root();
+        while (!isLeaf(page)) {
+            path[depth] = page;
+            childIndexes[depth] = childIndex(page, data);
+            page = childPage(page, childIndexes[depth++]);
+        }
+
+        int i = lowerBound(page, data);
+        if (i < count(page) && data.compareTo(leafKey(page, i)) == 0) {
+            setOccurrences(page, i, occurrences(page, i) + 1);
+            setStoredSize(storedSize() + 1);
+            return;
+        }
+        byte[] entry = new byte[entryWidth];
+        ByteBuffer entryBuffer = ByteBuffer.wrap(entry);
+        codec.write(entryBuffer, 0, data);
+        entryBuffer.putInt(keyWidth, 1);
+        setStoredSize(storedSize() + 1);
+        if (count(page) < leafCapacity) {
+            insertIntoLeaf(page, i, entry);
+            return;
+        }
+
+        int right = splitLeaf(page, i, entry);
+        byte[] separator = new byte[keyWidth];
+        segment(right).get(entry(right, 0), separator);
+        while (depth > 0) {
+            int parent = path[--depth];
+            if (count(parent) < internalCapacity) {
+                insertIntoInternal(parent, childIndexes[depth], separator, right);
+                return;
+            }
+            // splitInternal replaces separator with the key moved up to the next level
+            right = splitInternal(parent, childIndexes[depth], separator, right);
+            page = parent;
+        }
+        int newRoot = allocate(INTERNAL);
+        ByteBuffer segment = segment(newRoot);
+        segment.putInt(child(newRoot, 0), page);
+        segment.putInt(child(newRoot, 1), right);
+        segment.put(key(newRoot, 0), separator);
+        setCount(newRoot, 1);
+        segments.get(0).putInt(HEADER_ROOT, newRoot);
+    }
+
+    /**
+     * Inserts an entry into a leaf that has room for it.
+     */
+    private void insertIntoLeaf(int page, int i, byte[] entry) {
+        ByteBuffer segment = segment(page);
+        int count = count(page);
+        byte[] after = new byte[(count - i) * entryWidth];
+        segment.get(entry(page, i), after);
+        segment.put(entry(page, i + 1), after);
+        segment.put(entry(page, i), entry);
+        setCount(page, count + 1);
+    }
+
+    /**
+     * Splits a full leaf while inserting an entry, moving the upper half of
+     * the entries to a new leaf linked after it.
+     * @return the new leaf's page number
+     */
+    private int splitLeaf(int page, int i, byte[] entry) {
+        int count = count(page);
+        byte[] entries = new byte[(count + 1) * entryWidth];
+        ByteBuffer segment = segment(page);
+        segment.get(entry(page, 0), entries, 0, i * entryWidth);
+        System.arraycopy(entry, 0, entries, i * entryWidth, entryWidth);
+        segment.get(entry(page, i), entries, (i + 1) * entryWidth, (count - i) * entryWidth);
+
+        int right = allocate(LEAF);
+        int leftCount = (count + 1) / 2;
+        int rightCount = count + 1 - leftCount;
+        segment.put(entry(page, 0), entries, 0, leftCount * entryWidth);
+        setCount(page, leftCount);
+        segment(right).put(entry(right, 0), entries, leftCount * entryWidth, rightCount * entryWidth);
+        setCount(right, rightCount);
+        setNextLeaf(right, nextLeaf(page));
+        setNextLeaf(page, right);
+        return right;
+    }
+
+    /**
+     * Inserts a key and the child to its right into an internal node that
+     * has room for them.
+     * @param i the index of the child that was split, which becomes the key's index
+     */
+    private void insertIntoInternal(int page, int i, byte[] separator, int right) {
+        ByteBuffer segment = segment(page);
+        int count = count(page);
+        byte[] keys = new byte[(count - i) * keyWidth];
+        segment.get(key(page, i), keys);
+        segment.put(key(page, i + 1), keys);
+        segment.put(key(page, i), separator);
+        byte[] children = new byte[(count - i) * Integer.BYTES];
+        segment.get(child(page, i + 1), children);
+        segment.put(child(page, i + 2), children);
+        segment.putInt(child(page, i + 1), right);
+        setCount(page, count + 1);
+    }
+
+    /**
+     * Splits a full internal node while inserting a key and the child to
+     * its right.  The middle key moves up to the parent, and the keys and
+     * children after it move to a new node.
+     * @param i the index of the child that was split
+     * @param separator the key to insert, replaced by the key to insert
+     *     into the parent
+     * @return the new node's page number
+     */
+    private int splitInternal(int page, int i, byte[] separator, int right) {
+        ByteBuffer segment = segment(page);
+        int count = count(page);
+        byte[] keys = new byte[(count + 1) * keyWidth];
+        segment.get(key(page, 0), keys, 0, i * keyWidth);
+        System.arraycopy(separator, 0, keys, i * keyWidth, keyWidth);
+        segment.get(key(page, i), keys, (i + 1) * keyWidth, (count - i) * keyWidth);
+        int[] children = new int[count + 2];
+        for (int c = 0, from = 0; c < children.length; c++) {
+            children[c] = c == i + 1 ? right : segment.getInt(child(page, from++));
+        }
+
+        int newPage = allocate(INTERNAL);
+        ByteBuffer newSegment = segment(newPage);
+        int leftCount = (count + 1) / 2;
+        int rightCount = count - leftCount;
+        segment.put(key(page, 0), keys, 0, leftCount * keyWidth);
+        for (int c = 0; c <= leftCount; c++) {
+            segment.putInt(child(page, c), children[c]);
+        }
+        setCount(page, leftCount);
+        System.arraycopy(keys, leftCount * keyWidth, separator, 0, keyWidth);
+        newSegment.put(key(newPage, 0), keys, (leftCount + 1) * keyWidth, rightCount * keyWidth);
+        for (int c = 0; c <= rightCount; c++) {
+            newSegment.putInt(child(newPage, c), children[leftCount + 1 + c]);
+        }
+        setCount(newPage, rightCount);
+        return newPage;
+    }
+
+    /**
+     * Check whether data is stored in the tree.
+     * @param data the value to check for in the collection
+     * @return true if the value is found, false otherwise
+     */
+    @Override
+    public boolean contains(Comparable<T> data) {
+        checkOpen();
+        int page = findLeaf(data);
+        int i = lowerBound(page, data);
+        return i < count(page) && data.compareTo(leafKey(page, i)) == 0;
+    }
+
+    /**
+     * Removes one occurrence of a value.  Removing the last occurrence
+     * deletes the value's entry from its leaf, without merging nodes.
+     * @param data the value being removed
+     * @return true if a value was removed, false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        checkOpen();
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        int page = findLeaf(data);
+        int i = lowerBound(page, data);
+        int count = count(page);
+        if (i == count || data.compareTo(leafKey(page, i)) != 0) {
+            return false;
+        }
+        int occurrences = occurrences(page, i);
+        if (occurrences > 1) {
+            setOccurrences(page, i, occurrences - 1);
+        } else {
+            ByteBuffer segment = segment(page);
+            byte[] after = new byte[(count - i - 1) * entryWidth];
+            segment.get(entry(page, i + 1), after);
+            segment.put(entry(page, i), after);
+            setCount(page, count - 1);
+        }
+        setStoredSize(storedSize() - 1);
+        return true;
+    }
+
+    /**
+     * @return the number of values in the tree, which the header stores
+     */
+    @Override
+    public int size() {
+        checkOpen();
+        return (int) Math.min(storedSize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        checkOpen();
+        return storedSize() == 0;
+    }
+
+    /**
+     * Removes all values, leaving a single empty leaf.  The file keeps its
+     * length, and its pages are reused by later inserts.
+     */
+    @Override
+    public void clear() {
+        checkOpen();
+        ByteBuffer header = segments.get(0);
+        header.putInt(HEADER_PAGE_COUNT, 1);
+        header.putInt(HEADER_ROOT, allocate(LEAF));
+        setStoredSize(0);
+    }
+
+    @Override
+    public void setIteratorMin(Comparable<T> min) {
+        this.iteratorMin = min;
+    }
+
+    @Override
+    public void setIteratorMax(Comparable<T> max) {
+        this.iteratorMax = max;
+    }
+
+    /**
+     * Returns an iterator over the values of the tree in ascending order,
+     * from the iterator min to the iterator max inclusive.  It searches for
+     * the min once, and then follows the links between leaves.  The tree
+     * must not be changed while the iterator is in use.
+     * @return an iterator over the values in the tree
+     */
+    @Override
+    public Iterator<T> iterator() {
+        checkOpen();
+        Comparable<T> min = iteratorMin;
+        Comparable<T> max = iteratorMax;
+        int leaf;
+        if (min == null) {
+            leaf = root();
+            while (!isLeaf(leaf)) {
+                leaf = childPage(leaf, 0);
+            }
+        } else {
+            leaf = findLeaf(min);
+        }
+        int first = leaf;
+        int firstIndex = min == null ? 0 : lowerBound(first, min);
+
+        return new Iterator<T>() {
+            // the leaf and index of the entry after the current one
+            private int page = first;
+            private int index = firstIndex;
+            // the current value, or null once past the end or the max
+            private T value = null;
+            // the number of times the current value is still to be returned
+            private int remaining = 0;
+
+            {
+                advance();
+            }
+
+            private void advance() {
+                while (page != NO_PAGE && index == count(page)) {
+                    page = nextLeaf(page);
+                    index = 0;
+                }
+                if (page == NO_PAGE) {
+                    value = null;
+                    return;
+                }
+                value = leafKey(page, index);
+                remaining = occurrences(page, index++);
+                if (max != null && max.compareTo(value) < 0) {
+                    value = null;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return value != null;
+            }
+
+            @Override
+            public T next() {
+                if (value == null) {
+                    throw new NoSuchElementException();
+                }
+                T next = value;
+                if (--remaining == 0) {
+                    advance();
+                }
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Writes all changes to the file.
+     */
+    public void flush() {
+        checkOpen();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Writes all changes to the file and closes it.  The tree cannot be
+     * used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            flush();
+            segments.clear();
+            channel.close();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the tree is closed
+     */
+    private void checkOpen() throws IllegalStateException {
+        if (!channel.isOpen()) {
+            throw new IllegalStateException("The tree is closed.");
+        }
+    }
+
+    /**
+     * @return the height of the tree, counting the leaves.  Used by the tests.
+     */
+    int height() {
+        int height = 1;
+        for (int page = root(); !isLeaf(page); page = childPage(page, 0)) {
+            height++;
+        }
+        return height;
+    }
+
+}
@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This class tests the MappedBPlusTree class.
+ */
+public class MappedBPlusTreeTests {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests random inserts and removes, including duplicates, against a
+     * RedBlackTree.  Keys of 1000 bytes fit only four to a page, so the
+     * tree grows several levels deep.  Then tests that reopening the file
+     * finds the same values.
+     */
+    @Test
+    public void testMatchesRedBlackTree() throws IOException {
+        Path file = directory.resolve("tree.bpt");
+        FixedWidthCodec<String> codec = FixedWidthCodec.string(1000);
+        RedBlackTree<String> expected = new RedBlackTree<>();
+        Random random = new Random(13);
+        try (MappedBPlusTree<String> tree = new MappedBPlusTree<>(file, codec)) {
+            for (int i = 0; i < 3000; i++) {
+                String value = Integer.toString(random.nextInt(1000));
+                if (random.nextInt(4) == 0) {
+                    Assertions.assertEquals(expected.remove(value), tree.remove(value));
+                } else {
+                    expected.insert(value);
+                    tree.insert(value);
+                }
+            }
+            Assertions.assertTrue(tree.height() >= 4);
+            Assertions.assertEquals(expected.size(), tree.size());
+            assertSameValues(expected, tree);
+        }
+
+        try (MappedBPlusTree<String> tree = new MappedBPlusTree<>(file, codec)) {
+            Assertions.assertEquals(expected.size(), tree.size());
+            for (int value = 0; value < 1000; value++) {
+                String key = Integer.toString(value);
+                Assertions.assertEquals(expected.contains(key), tree.contains(key));
+            }
+            assertSameValues(expected, tree);
+        }
+    }
+
+    /**
+     * Tests iterating between bounds, including bounds that are not in the
+     * tree and leaves emptied by removes.
+     */
+    @Test
+    public void testIteratorBounds() throws IOException {
+        try (MappedBPlusTree<Integer> tree = new MappedBPlusTree<>(directory.resolve("ints.bpt"), FixedWidthCodec.INTEGER)) {
+            for (int i = 0; i < 20000; i++) {
+                tree.insert(i * 2);
+            }
+            tree.insert(100);
+            for (int i = 1000; i < 3000; i++) {
+                Assertions.assertTrue(tree.remove(i * 2));
+            }
+            tree.setIteratorMin(97);
+            tree.setIteratorMax(6003);
+            List<Integer> values = new ArrayList<>();
+            tree.forEach(values::add);
+            Assertions.assertEquals(List.of(98, 100, 100), values.subList(0, 3));
+            Assertions.assertEquals(1998, (int) values.get(values.size() - 3));
+            Assertions.assertEquals(List.of(6000, 6002), values.subList(values.size() - 2, values.size()));
+            Assertions.assertEquals(18001, tree.size());
+
+            tree.clear();
+            Assertions.assertTrue(tree.isEmpty());
+            Assertions.assertFalse(tree.iterator().hasNext());
+            tree.insert(5);
+            Assertions.assertTrue(tree.contains(5));
+        }
+    }
+
+    /**
+     * Tests that files of another format or key width are rejected.
+     */
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("ints.bpt");
+        new MappedBPlusTree<>(file, FixedWidthCodec.INTEGER).close();
+        Assertions.assertThrows(IOException.class, () -> new MappedBPlusTree<>(file, FixedWidthCodec.LONG));
+        Path text = Files.writeString(directory.resolve("text.txt"), "not a tree");
+        Assertions.assertThrows(IOException.class, () -> new MappedBPlusTree<>(text, FixedWidthCodec.INTEGER));
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> new MappedBPlusTree<>(directory.resolve("wide.bpt"), FixedWidthCodec.string(2000)));
+    }
+
+    /**
+     * Asserts that a tree iterates over the same values as a red-black tree.
+     */
+    private static void assertSameValues(RedBlackTree<String> expected, MappedBPlusTree<String> tree) {
+        int index = 0;
+        for (String value : tree) {
+            Assertions.assertEquals(expected.select(index++), value);
+        }
+        Assertions.assertEquals(expected.size(), index);
+    }
+
+}
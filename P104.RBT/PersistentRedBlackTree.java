@@ -0,0 +1,466 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is a persistent red-black tree: its nodes are immutable, so an
+ * insert or remove never changes an existing node.  Instead it copies the
+ * O(log n) nodes on the path it changes and shares every other node with the
+ * previous version.  That makes snapshot() an O(1) operation, and lets any
+ * number of threads read or iterate over a version (without locking) while
+ * another thread keeps writing new versions.  Only one thread may write to a
+ * given PersistentRedBlackTree at a time.
+ */
+public class PersistentRedBlackTree<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T> {
+
+    /**
+     * An immutable node, which also stores the size of its subtree.
+     */
+    private static final class Node<T> {
+        private final T data;
+        private final Node<T> left;
+        private final Node<T> right;
+        private final boolean isRed;
+        private final int size;
+
+        private Node(T data, Node<T> left, Node<T> right, boolean isRed) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.isRed = isRed;
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+    }
+
+    // the current version of the tree; volatile so that a reader on another
+    // thread always sees a completely built version
+    private volatile Node<T> root;
+    // false for snapshots, which cannot be changed
+    private final boolean isMutable;
+
+    /**
+     * Creates a new, empty tree.
+     */
+    public PersistentRedBlackTree() { this(null, true); }
+
+    private PersistentRedBlackTree(Node<T> root, boolean isMutable) {
+        this.root = root;
+        this.isMutable = isMutable;
+    }
+
+    /**
+     * Creates a read-only view of the current version of this tree, which
+     * later writes to this tree do not affect.  This takes constant time,
+     * because the two trees share all their nodes.
+     * @return a snapshot of this tree
+     */
+    public PersistentRedBlackTree<T> snapshot() {
+        return new PersistentRedBlackTree<>(root, false);
+    }
+
+    /**
+     * Creates a new version of this tree that also holds data, leaving this
+     * tree unchanged.
+     * @param data the value to add
+     * @return a new (writable) tree holding the values of this tree and data
+     * @throws NullPointerException if data argument is null
+     */
+    public PersistentRedBlackTree<T> with(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        return new PersistentRedBlackTree<>(blacken(insert(root, data)), true);
+    }
+
+    /**
+     * Creates a new version of this tree with one occurrence of data
+     * removed, leaving this tree unchanged.
+     * @param data the value to remove
+     * @return a new (writable) tree holding the values of this tree without
+     * one occurrence of data, or a writable copy of this tree if it does not
+     * contain data
+     * @throws NullPointerException if data argument is null
+     */
+    public PersistentRedBlackTree<T> without(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        Node<T> current = root;
+        return new PersistentRedBlackTree<>(lookup(current, data) ? blacken(delete(current, data)) : current, true);
+    }
+
+    /**
+     * Inserts a new value into the tree by publishing a new version.
+     * Snapshots taken earlier keep the old version.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     * @throws UnsupportedOperationException if this tree is a snapshot
+     */
+    @Override
+    public void insert(T data) throws NullPointerException, UnsupportedOperationException {
+        checkMutable();
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        root = blacken(insert(root, data));
+    }
+
+    /**
+     * Removes one occurrence of a value by publishing a new version.
+     * Snapshots taken earlier keep the old version.
+     * @param data the value being removed
+     * @return true if a value was removed, false otherwise
+     * @throws NullPointerException if data argument is null
+     * @throws UnsupportedOperationException if this tree is a snapshot
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException, UnsupportedOperationException {
+        checkMutable();
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        Node<T> current = root;
+        // the deletion assumes the value is present, so check first
+        if (!lookup(current, data)) {
+            return false;
+        }
+        root = blacken(delete(current, data));
+        return true;
+    }
+
+    /**
+     * Removes all values by publishing an empty version.
+     * @throws UnsupportedOperationException if this tree is a snapshot
+     */
+    @Override
+    public void clear() throws UnsupportedOperationException {
+        checkMutable();
+        root = null;
+    }
+
+    @Override
+    public boolean contains(Comparable<T> data) {
+        return lookup(root, data);
+    }
+
+    @Override
+    public int size() {
+        return sizeOf(root);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @return an iterator over the values of the current version in
+     * ascending order; later writes never affect it
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Node<T> version = root;
+        return new Iterator<T>() {
+            // the nodes whose value and right subtree are still to be returned
+            @SuppressWarnings("unchecked")
+            private Node<T>[] stack = (Node<T>[]) new Node<?>[16];
+            private int depth = 0;
+
+            {
+                pushLeftPath(version);
+            }
+
+            private void pushLeftPath(Node<T> node) {
+                for (; node != null; node = node.left) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = node;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return depth > 0;
+            }
+
+            @Override
+            public T next() {
+                if (depth == 0) {
+                    throw new NoSuchElementException();
+                }
+                Node<T> node = stack[--depth];
+                stack[depth] = null;
+                pushLeftPath(node.right);
+                return node.data;
+            }
+        };
+    }
+
+    private void checkMutable() throws UnsupportedOperationException {
+        if (!isMutable) {
+            throw new UnsupportedOperationException("A snapshot cannot be changed.");
+        }
+    }
+
+    private static int sizeOf(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static boolean isRed(Node<?> node) {
+        return node != null && node.isRed;
+    }
+
+    private static boolean isBlack(Node<?> node) {
+        return node != null && !node.isRed;
+    }
+
+    private static <T> Node<T> red(T data, Node<T> left, Node<T> right) {
+        return new Node<>(data, left, right, true);
+    }
+
+    private static <T> Node<T> black(T data, Node<T> left, Node<T> right) {
+        return new Node<>(data, left, right, false);
+    }
+
+    /**
+     * @param node a node, or null
+     * @return a black copy of node, or node itself if it is null or already black
+     */
+    private static <T> Node<T> blacken(Node<T> node) {
+        return isRed(node) ? black(node.data, node.left, node.right) : node;
+    }
+
+    /**
+     * @param node a black node
+     * @return a red copy of node
+     */
+    private static <T> Node<T> redden(Node<T> node) {
+        if (!isBlack(node)) {
+            throw new IllegalStateException("Only a black node can be turned red.");
+        }
+        return red(node.data, node.left, node.right);
+    }
+
+    /**
+     * Searches for data the same way as BinarySearchTree.lookup.
+     * @param node the root of the version to search
+     * @param data the value to search for
+     * @return true if the value is found, false otherwise
+     */
+    private static <T extends Comparable<T>> boolean lookup(Node<T> node, Comparable<T> data) {
+        while (node != null) {
+            int cmp = data.compareTo(node.data);
+            if (cmp == 0 && node.data.equals(data)) {
+                return true;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * Inserts data as a new red leaf below node, copying the path to it.  A
+     * red node with a red child that this creates is repaired by the copy of
+     * its black parent, which takes the place of the red-black insert repair.
+     * Duplicates get their own nodes and are placed to the left.
+     * @param node the root of the subtree to insert into
+     * @param data the new value
+     * @return the root of the new version of the subtree, which may be red
+     */
+    private static <T extends Comparable<T>> Node<T> insert(Node<T> node, T data) {
+        if (node == null) {
+            return red(data, null, null);
+        }
+        int cmp = data.compareTo(node.data);
+        if (cmp < 0 || (cmp == 0 && data.equals(node.data))) {
+            return balanceLeft(node.isRed, node.data, insert(node.left, data), node.right);
+        }
+        return balanceRight(node.isRed, node.data, node.left, insert(node.right, data));
+    }
+
+    /**
+     * Builds a node whose new left subtree may be a red node with a red child.
+     */
+    private static <T> Node<T> balanceLeft(boolean isRed, T data, Node<T> left, Node<T> right) {
+        if (isRed(left) && isRed(left.left)) {
+            return red(left.data, blacken(left.left), black(data, left.right, right));
+        }
+        if (isRed(left) && isRed(left.right)) {
+            return red(left.right.data, black(left.data, left.left, left.right.left),
+                black(data, left.right.right, right));
+        }
+        return new Node<>(data, left, right, isRed);
+    }
+
+    /**
+     * Builds a node whose new right subtree may be a red node with a red child.
+     */
+    private static <T> Node<T> balanceRight(boolean isRed, T data, Node<T> left, Node<T> right) {
+        if (isRed(right) && isRed(right.left)) {
+            return red(right.left.data, black(data, left, right.left.left),
+                black(right.data, right.left.right, right.right));
+        }
+        if (isRed(right) && isRed(right.right)) {
+            return red(right.data, black(data, left, right.left), blacken(right.right));
+        }
+        return new Node<>(data, left, right, isRed);
+    }
+
+    /**
+     * Deletes one occurrence of data, which must be present, from the
+     * subtree rooted at node, copying the path to it.  When the subtree's
+     * root is black, its new version has a black height one lower, which
+     * the callers' balanceAfterLeftDelete and balanceAfterRightDelete repair.
+     * @param node the root of the subtree to delete from
+     * @param data the value to delete
+     * @return the root of the new version of the subtree
+     */
+    private static <T extends Comparable<T>> Node<T> delete(Node<T> node, T data) {
+        int cmp = data.compareTo(node.data);
+        if (cmp == 0 && node.data.equals(data)) {
+            return fuse(node.left, node.right);
+        }
+        if (cmp < 0) {
+            Node<T> left = delete(node.left, data);
+            return isBlack(node.left)
+                ? balanceAfterLeftDelete(node.data, left, node.right)
+                : red(node.data, left, node.right);
+        }
+        Node<T> right = delete(node.right, data);
+        return isBlack(node.right)
+            ? balanceAfterRightDelete(node.data, node.left, right)
+            : red(node.data, node.left, right);
+    }
+
+    /**
+     * Builds a node whose left subtree has a black height one lower than its
+     * right subtree.
+     */
+    private static <T> Node<T> balanceAfterLeftDelete(T data, Node<T> left, Node<T> right) {
+        if (isRed(left)) {
+            return red(data, blacken(left), right);
+        }
+        if (isBlack(right)) {
+            return balance(data, left, redden(right));
+        }
+        if (isRed(right) && isBlack(right.left)) {
+            return red(right.left.data, black(data, left, right.left.left),
+                balance(right.data, right.left.right, redden(right.right)));
+        }
+        throw new IllegalStateException("The tree is not a valid red-black tree.");
+    }
+
+    /**
+     * Builds a node whose right subtree has a black height one lower than
+     * its left subtree.
+     */
+    private static <T> Node<T> balanceAfterRightDelete(T data, Node<T> left, Node<T> right) {
+        if (isRed(right)) {
+            return red(data, left, blacken(right));
+        }
+        if (isBlack(left)) {
+            return balance(data, redden(left), right);
+        }
+        if (isRed(left) && isBlack(left.right)) {
+            return red(left.right.data, balance(left.data, redden(left.left), left.right.left),
+                black(data, left.right.right, right));
+        }
+        throw new IllegalStateException("The tree is not a valid red-black tree.");
+    }
+
+    /**
+     * Builds a black node from subtrees of equal black height, fixing a red
+     * child that has a red child of its own.
+     */
+    private static <T> Node<T> balance(T data, Node<T> left, Node<T> right) {
+        if (isRed(left)) {
+            if (isRed(right)) {
+                return red(data, blacken(left), blacken(right));
+            }
+            if (isRed(left.left)) {
+                return red(left.data, blacken(left.left), black(data, left.right, right));
+            }
+            if (isRed(left.right)) {
+                return red(left.right.data, black(left.data, left.left, left.right.left),
+                    black(data, left.right.right, right));
+            }
+        } else if (isRed(right)) {
+            if (isRed(right.right)) {
+                return red(right.data, black(data, left, right.left), blacken(right.right));
+            }
+            if (isRed(right.left)) {
+                return red(right.left.data, black(data, left, right.left.left),
+                    black(right.data, right.left.right, right.right));
+            }
+        }
+        return black(data, left, right);
+    }
+
+    /**
+     * Joins the two subtrees of a deleted node, which have the same black
+     * height, into one subtree holding all their values in order.
+     * @param left the deleted node's left subtree
+     * @param right the deleted node's right subtree
+     * @return the root of the joined subtree
+     */
+    private static <T> Node<T> fuse(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (isRed(left) && isRed(right)) {
+            Node<T> middle = fuse(left.right, right.left);
+            if (isRed(middle)) {
+                return red(middle.data, red(left.data, left.left, middle.left),
+                    red(right.data, middle.right, right.right));
+            }
+            return red(left.data, left.left, red(right.data, middle, right.right));
+        }
+        if (isBlack(left) && isBlack(right)) {
+            Node<T> middle = fuse(left.right, right.left);
+            if (isRed(middle)) {
+                return red(middle.data, black(left.data, left.left, middle.left),
+                    black(right.data, middle.right, right.right));
+            }
+            return balanceAfterLeftDelete(left.data, left.left, black(right.data, middle, right.right));
+        }
+        if (isRed(right)) {
+            return red(right.data, fuse(left, right.left), right.right);
+        }
+        return red(left.data, left.left, fuse(left.right, right));
+    }
+
+    /**
+     * Checks that the current version is a valid red-black tree with correct
+     * subtree sizes.  Used by the tests.
+     * @return the number of black nodes on every path from the root
+     * @throws IllegalStateException if the tree is not valid
+     */
+    int checkRedBlackProperties() throws IllegalStateException {
+        if (isRed(root)) {
+            throw new IllegalStateException("The root is red.");
+        }
+        return blackHeight(root);
+    }
+
+    private static int blackHeight(Node<?> node) {
+        if (node == null) {
+            return 0;
+        }
+        if (node.isRed && (isRed(node.left) || isRed(node.right))) {
+            throw new IllegalStateException("A red node has a red child.");
+        }
+        if (node.size != 1 + sizeOf(node.left) + sizeOf(node.right)) {
+            throw new IllegalStateException("A subtree size is wrong.");
+        }
+        int height = blackHeight(node.left);
+        if (height != blackHeight(node.right)) {
+            throw new IllegalStateException("Paths have different numbers of black nodes.");
+        }
+        return height + (node.isRed ? 0 : 1);
+    }
+
+}
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class tests the PersistentRedBlackTree class.
+ */
+public class PersistentRedBlackTreeTests {
+
+    /**
+     * Tests random inserts and removes, including duplicates, against a
+     * RedBlackTree, checking the red-black properties after every change.
+     */
+    @Test
+    public void testMatchesRedBlackTree() {
+        PersistentRedBlackTree<Integer> tree = new PersistentRedBlackTree<>();
+        RedBlackTree<Integer> expected = new RedBlackTree<>();
+        Random random = new Random(10);
+        for (int i = 0; i < 4000; i++) {
+            int value = random.nextInt(300);
+            if (random.nextInt(3) == 0) {
+                Assertions.assertEquals(expected.remove(value), tree.remove(value));
+            } else {
+                expected.insert(value);
+                tree.insert(value);
+            }
+            tree.checkRedBlackProperties();
+            Assertions.assertEquals(expected.size(), tree.size());
+        }
+        List<Integer> values = new ArrayList<>();
+        tree.forEach(values::add);
+        for (int i = 0; i < values.size(); i++) {
+            Assertions.assertEquals(expected.select(i), values.get(i));
+        }
+        for (int value = 0; value < 300; value++) {
+            Assertions.assertEquals(expected.contains(value), tree.contains(value));
+        }
+    }
+
+    /**
+     * Tests that snapshots and older versions keep their values while the
+     * tree changes, and that snapshots cannot be changed.
+     */
+    @Test
+    public void testSnapshotsAreIsolated() {
+        PersistentRedBlackTree<String> tree = new PersistentRedBlackTree<>();
+        tree.insert("b");
+        tree.insert("a");
+        PersistentRedBlackTree<String> snapshot = tree.snapshot();
+        Iterator<String> iterator = tree.iterator();
+        tree.insert("c");
+        Assertions.assertTrue(tree.remove("a"));
+
+        Assertions.assertEquals("a", iterator.next());
+        Assertions.assertEquals("b", iterator.next());
+        Assertions.assertFalse(iterator.hasNext());
+        Assertions.assertEquals(2, snapshot.size());
+        Assertions.assertTrue(snapshot.contains("a"));
+        Assertions.assertFalse(snapshot.contains("c"));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> snapshot.insert("d"));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> snapshot.remove("a"));
+        Assertions.assertThrows(UnsupportedOperationException.class, snapshot::clear);
+
+        PersistentRedBlackTree<String> next = tree.with("d").without("b");
+        Assertions.assertEquals(2, tree.size());
+        Assertions.assertEquals(2, next.size());
+        Assertions.assertTrue(next.contains("d"));
+        Assertions.assertFalse(next.contains("b"));
+        Assertions.assertTrue(tree.contains("b"));
+        Assertions.assertThrows(NullPointerException.class, () -> tree.insert(null));
+
+        tree.clear();
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertEquals(2, snapshot.size());
+    }
+
+    /**
+     * Tests that readers iterating over snapshots always see a complete
+     * version while a writer keeps changing the tree.
+     */
+    @Test
+    public void testReadersDuringWrites() throws InterruptedException {
+        PersistentRedBlackTree<Integer> tree = new PersistentRedBlackTree<>();
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(i);
+        }
+        AtomicBoolean failed = new AtomicBoolean(false);
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                PersistentRedBlackTree<Integer> snapshot = tree.snapshot();
+                int count = 0;
+                int previous = -1;
+                for (int value : snapshot) {
+                    if (value < previous) {
+                        failed.set(true);
+                    }
+                    previous = value;
+                    count++;
+                }
+                if (count != snapshot.size() || count < 1000 || count > 1001) {
+                    failed.set(true);
+                }
+            }
+        });
+        reader.start();
+        for (int round = 0; round < 5000; round++) {
+            tree.insert(round % 1000);
+            Assertions.assertTrue(tree.remove(round % 1000));
+        }
+        done.set(true);
+        reader.join();
+
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(1000, tree.size());
+    }
+
+}
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class is a red-black tree with the same behaviour as RedBlackTree, but
+ * with its nodes pooled in arrays instead of allocated one object at a time:
+ * node i is the i-th entry of an Object array of values and of the index
+ * arrays and colour bitset of IndexedRedBlackTree.  Apart from the values
+ * themselves, the whole tree is a handful of arrays, so a lookup follows
+ * indices through a few dense arrays and the garbage collector has almost
+ * nothing to trace.
+ */
+public class PooledRedBlackTree<T extends Comparable<T>> extends IndexedRedBlackTree
+        implements SortedCollection<T>, Iterable<T> {
+
+    // value stored in each node
+    private Object[] keys = new Object[DEFAULT_CAPACITY];
+
+    /**
+     * Inserts a new value into the tree.  Unlike BinarySearchTree, which
+     * counts the occurrences of a value in one node, each duplicate gets a
+     * slot of its own, stored in the left subtree of an equal value.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        int up = NIL;
+        boolean isLeft = false;
+        int current = root;
+        while (current != NIL) {
+            up = current;
+            T key = key(current);
+            int cmp = data.compareTo(key);
+            isLeft = cmp < 0 || (cmp == 0 && data.equals(key));
+            current = isLeft ? left[current] : right[current];
+        }
+        int node = allocate();
+        keys[node] = data;
+        linkLeaf(node, up, isLeft);
+    }
+
+    @Override
+    public boolean contains(Comparable<T> data) {
+        return find(data) != NIL;
+    }
+
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        int node = find(data);
+        if (node == NIL) {
+            return false;
+        }
+        removeAt(node);
+        return true;
+    }
+
+    /**
+     * @return an iterator over the values of the tree in ascending order,
+     * with each duplicate returned separately
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next = root == NIL ? NIL : minimum(root);
+
+            @Override
+            public boolean hasNext() {
+                return next != NIL;
+            }
+
+            @Override
+            public T next() {
+                if (next == NIL) {
+                    throw new NoSuchElementException();
+                }
+                T value = key(next);
+                next = successor(next);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Searches for data the same way as BinarySearchTree.lookup.
+     * @param data the value to search for
+     * @return the index of a node holding data, or NIL if there is none
+     */
+    private int find(Comparable<T> data) {
+        int current = root;
+        while (current != NIL) {
+            T key = key(current);
+            int cmp = data.compareTo(key);
+            if (cmp == 0 && key.equals(data)) {
+                return current;
+            }
+            current = cmp < 0 ? left[current] : right[current];
+        }
+        return current;
+    }
+
+    /**
+     * @param node the index of a node
+     * @return the value stored in the node
+     */
+    @SuppressWarnings("unchecked")
+    private T key(int node) {
+        return (T) keys[node];
+    }
+
+    @Override
+    protected void moveKey(int from, int to) {
+        keys[to] = keys[from];
+    }
+
+    @Override
+    protected void releaseKey(int node) {
+        // drop the reference so the removed value can be collected
+        keys[node] = null;
+    }
+
+    @Override
+    protected void growKeys(int length) {
+        keys = Arrays.copyOf(keys, length);
+    }
+
+    /**
+     * Tests that the tree holds the same values in the same order as a
+     * RedBlackTree given the same inserts and removals.
+     */
+    @Test
+    public void testPooledRBTMatchesRedBlackTree() {
+        PooledRedBlackTree<String> pooled = new PooledRedBlackTree<>();
+        RedBlackTree<String> expected = new RedBlackTree<>();
+        Random random = new Random(600);
+        for (int i = 0; i < 3000; i++) {
+            String value = Integer.toString(random.nextInt(300));
+            if (random.nextInt(3) > 0) {
+                pooled.insert(value);
+                expected.insert(value);
+            } else {
+                Assertions.assertEquals(expected.remove(value), pooled.remove(value));
+            }
+            Assertions.assertEquals(expected.contains(value), pooled.contains(value));
+            Assertions.assertEquals(expected.size(), pooled.size());
+        }
+        Assertions.assertFalse(pooled.isRed(pooled.root));
+        pooled.blackHeight(pooled.root);
+
+        List<String> values = new ArrayList<>();
+        pooled.forEach(values::add);
+        Assertions.assertEquals(expected.size(), values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Assertions.assertEquals(expected.select(i), values.get(i));
+        }
+    }
+
+    /**
+     * Tests that clear() empties the tree and that it can be refilled.
+     */
+    @Test
+    public void testPooledRBTClear() {
+        PooledRedBlackTree<Integer> pooled = new PooledRedBlackTree<>();
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            values.add(i % 40);
+        }
+        Collections.shuffle(values, new Random(6));
+        values.forEach(pooled::insert);
+        pooled.clear();
+        Assertions.assertTrue(pooled.isEmpty());
+        Assertions.assertFalse(pooled.contains(3));
+        Assertions.assertFalse(pooled.iterator().hasNext());
+        values.forEach(pooled::insert);
+        Assertions.assertEquals(100, pooled.size());
+        Assertions.assertThrows(NullPointerException.class, () -> pooled.insert(null));
+    }
+
+}
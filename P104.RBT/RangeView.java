@@ -0,0 +1,155 @@
+import java.util.Iterator;
+
+/**
+ * This class is a view of the values of a BinarySearchTree (or RedBlackTree)
+ * that lie between two bounds, as returned by the tree's subSet, headSet and
+ * tailSet methods.  The view copies nothing: it asks the tree for every
+ * answer, so changes to the tree show through the view, and inserts and
+ * removes through the view change the tree.  Iteration starts at the lower
+ * bound with one descent of the tree and stops at the upper bound, and
+ * size() counts the values with two rank queries, so none of the methods
+ * visit values outside the range.
+ */
+public class RangeView<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T> {
+
+    // the tree the view looks into
+    private final BinarySearchTree<T> tree;
+    // the lower bound, or null when the view has none
+    private final T lo;
+    private final boolean loInclusive;
+    // the upper bound, or null when the view has none
+    private final T hi;
+    private final boolean hiInclusive;
+
+    /**
+     * Creates a view of the values of a tree between two bounds.
+     * @param tree the tree to view
+     * @param lo the lower bound, or null for no lower bound
+     * @param loInclusive whether values equal to lo are in the view
+     * @param hi the upper bound, or null for no upper bound
+     * @param hiInclusive whether values equal to hi are in the view
+     */
+    RangeView(BinarySearchTree<T> tree, T lo, boolean loInclusive, T hi, boolean hiInclusive) {
+        this.tree = tree;
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+    }
+
+    /**
+     * @param data a value
+     * @return true if data lies between the bounds of the view
+     */
+    public boolean inRange(T data) {
+        if (lo != null) {
+            int cmp = data.compareTo(lo);
+            if (loInclusive ? cmp < 0 : cmp <= 0) {
+                return false;
+            }
+        }
+        if (hi != null) {
+            int cmp = data.compareTo(hi);
+            if (hiInclusive ? cmp > 0 : cmp >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts a value into the tree.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data is null
+     * @throws IllegalArgumentException if data lies outside the view
+     */
+    @Override
+    public void insert(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        if (!inRange(data)) {
+            throw new IllegalArgumentException("The value " + data + " is outside the range of the view.");
+        }
+        tree.insert(data);
+    }
+
+    /**
+     * Checks whether data is in the tree and between the bounds of the view.
+     * @param data the value to check for
+     * @return true if the view contains data one or more times
+     */
+    @Override
+    public boolean contains(Comparable<T> data) {
+        BSTNode<T> node = tree.lookup(tree.root, data);
+        return node != null && inRange(node.data);
+    }
+
+    /**
+     * Removes one occurrence of data from the tree, if it lies in the view.
+     * @param data the value being removed
+     * @return true if a value was removed, and false if the view did not
+     * contain data, including when data lies outside the view
+     * @throws NullPointerException if data is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        return inRange(data) && tree.remove(data);
+    }
+
+    /**
+     * Counts the values of the view from the ranks of its bounds, in
+     * O(log n) time for a balanced tree.
+     * @return the number of values in the view, including duplicates
+     */
+    @Override
+    public int size() {
+        int below = lo == null ? 0 : loInclusive ? tree.rank(lo) : tree.rankInclusive(lo);
+        int upTo = hi == null ? tree.size() : hiInclusive ? tree.rankInclusive(hi) : tree.rank(hi);
+        return Math.max(0, upTo - below);
+    }
+
+    /**
+     * @return true if the view contains no values
+     */
+    @Override
+    public boolean isEmpty() {
+        return !iterator().hasNext();
+    }
+
+    /**
+     * Removes every value of the view from the tree, leaving the values
+     * outside the view.  Each node in the range is found with one descent
+     * and removed with all of its occurrences.
+     */
+    @Override
+    public void clear() {
+        for (BSTNode<T> node = firstNode(); node != null; node = firstNode()) {
+            tree.removeNode(node);
+        }
+    }
+
+    /**
+     * Returns an iterator over the values of the view in ascending order,
+     * each duplicate as many times as it occurs.  The tree must not be
+     * changed while the iterator is in use.
+     * @return an iterator over the values of the view
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return tree.ascendingIterator(firstNode(), hi, hiInclusive);
+    }
+
+    /**
+     * @return the node holding the smallest value of the view, or null when
+     * the view is empty
+     */
+    private BSTNode<T> firstNode() {
+        BSTNode<T> first = lo == null ? BinarySearchTree.leftmost(tree.root) : tree.ceilingNode(lo, loInclusive);
+        return first != null && inRange(first.data) ? first : null;
+    }
+
+}
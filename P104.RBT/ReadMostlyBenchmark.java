@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class compares the contains throughput of reader threads on a
+ * ConcurrentRedBlackTree and on a RedBlackTree wrapped with synchronized
+ * methods, while one writer thread inserts and removes values so that about
+ * 1% of all operations are writes.  Run with an optional argument for the
+ * number of reader threads (default: the number of available processors).
+ */
+public class ReadMostlyBenchmark {
+
+    // how long each measurement runs, in milliseconds
+    private static final long DURATION_MILLIS = 1000;
+    // the number of values in the tree, and the range of the keys searched for
+    private static final int SIZE = 100000;
+
+    /**
+     * A RedBlackTree with every operation synchronized on the wrapper.
+     */
+    private static class SynchronizedTree<T extends Comparable<T>> implements SortedCollection<T> {
+        private final RedBlackTree<T> tree = new RedBlackTree<>();
+
+        public synchronized void insert(T data) { tree.insert(data); }
+        public synchronized boolean contains(Comparable<T> data) { return tree.contains(data); }
+        public synchronized boolean remove(T data) { return tree.remove(data); }
+        public synchronized int size() { return tree.size(); }
+        public synchronized boolean isEmpty() { return tree.isEmpty(); }
+        public synchronized void clear() { tree.clear(); }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        double optimistic = measure(new ConcurrentRedBlackTree<>(), readers);
+        double synchronizedRate = measure(new SynchronizedTree<>(), readers);
+        System.out.printf("%d readers + 1 writer: ConcurrentRedBlackTree %6.2f M contains/s   synchronized %6.2f M contains/s%n",
+            readers, optimistic / 1e6, synchronizedRate / 1e6);
+    }
+
+    /**
+     * Fills the tree, then runs the readers and the writer for DURATION_MILLIS.
+     * @param tree the empty tree to use
+     * @param readers the number of reader threads
+     * @return the number of contains calls completed per second
+     */
+    private static double measure(SortedCollection<Integer> tree, int readers) throws InterruptedException {
+        for (int i = 0; i < SIZE; i += 2) {
+            tree.insert(i);
+        }
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!done.get()) {
+                    // publish the count in batches so the writer can pace itself
+                    for (int i = 0; i < 1024; i++) {
+                        tree.contains(random.nextInt(SIZE));
+                    }
+                    reads.add(1024);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!done.get()) {
+                // keep writes near 1% of the operations
+                if (writes.sum() * 99 > reads.sum()) {
+                    Thread.yield();
+                    continue;
+                }
+                int key = random.nextInt(SIZE / 2) * 2 + 1;
+                tree.insert(key);
+                tree.remove(key);
+                writes.add(2);
+            }
+        }));
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(DURATION_MILLIS);
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return reads.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+}
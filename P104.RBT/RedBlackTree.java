@@ -1,31 +1,68 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
 
+    // the number of values below which a set operation or a parallel build
+    // works on the current thread instead of forking a task
+    private static final int PARALLEL_THRESHOLD = 4096;
+
     /**
      * Checks if a new red node in the RedBlackTree causes a red property violation
      * by having a red parent. If this is not the case, the method terminates without
      * making any changes to the tree. If a red property violation is detected, then
      * the method repairs this violation and any additional red property violations
-     * that are generated as a result of the applied repair operation.
+     * that are generated as a result of the applied repair operation.  Repairs that
+     * move the violation up the tree are handled by looping rather than recursing.
      * @param newRedNode a newly inserted red node, or a node turned red by previous repair
      */
     protected void ensureRedProperty(RBTNode<T> newRedNode) {
-        // If the newRedNode has no parent then it is the root of the tree, and we
+        RBTNode<T> node = repairRedProperty(newRedNode);
+        // If the node has no parent then it is the root of the tree, and we
         // update the tree to reflect that as well as set the root's color to black.
-        if (newRedNode.getUp() == null) {
-            if (newRedNode.isRed()) {
-                newRedNode.flipColor();
+        if (node.getUp() == null) {
+            if (node.isRed()) {
+                node.flipColor();
+                if (counters != null) {
+                    counters.recolourings.increment();
+                }
             }
-            root = newRedNode;
-            return;
+            root = node;
         }
+    }
 
-        RBTNode<T> parent = newRedNode.getUp();
+    /**
+     * Repairs red property violations from a red node upwards, as described
+     * for ensureRedProperty, without touching the tree's root reference, so
+     * that it also works on a subtree that is not attached to the tree.
+     * @param newRedNode a red node whose parent may be red
+     * @return the node the repair stopped at, which is the root of the
+     *     subtree when it has no parent
+     */
+    private RBTNode<T> repairRedProperty(RBTNode<T> newRedNode) {
+        RBTNode<T> node = newRedNode;
+        // the number of colour flips and levels climbed, for the counters
+        int recoloured = 0;
+        int climbed = 0;
         // Parent being red means there is a red property violation.
-        // If the parent is not red there are no violations and we do nothing.
-        if (parent.isRed()) {
+        // If the parent is not red there are no violations and we are done.
+        while (node.getUp() != null && node.getUp().isRed()) {
+            RBTNode<T> parent = node.getUp();
+            // The root is always black, so a red parent always has a parent of its own.
             RBTNode<T> grandparent = parent.getUp();
             RBTNode<T> aunt;
             // Determine which child of the grandparent is the aunt.
@@ -39,27 +76,39 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
                 parent.flipColor();
                 aunt.flipColor();
                 grandparent.flipColor();
+                recoloured += 3;
+                climbed += 2;
                 // Have to ensure that flipping the grandparent's color didn't introduce another violation.
-                ensureRedProperty(grandparent);
-            } else {
+                node = grandparent;
+                continue;
+            }
 
-                // newRedNode and parent are aligned we can just do the normal algorithm (Black-Line case).
-                if (parent.isRightChild() == newRedNode.isRightChild()) {
-                    rotate(parent, grandparent);
-                    parent.flipColor();
-                    grandparent.flipColor();
-                    // Don't need to call ensureRedProperty recursively here because parent will be black
-                    // and thus won't cause any new red property violations.
-                } else {    // newRedNode and parent need to be rotated before we carry on with algorithm (Black-Zig case).
-                    rotate(newRedNode, parent);
-                    rotate(newRedNode, grandparent);
-                    newRedNode.flipColor();
-                    grandparent.flipColor();
-                    // Same as above, flipping newRedNode's color makes it black so
-                    // it won't cause any new red property violations.
-                }
+            // node and parent are aligned we can just do the normal algorithm (Black-Line case).
+            if (parent.isRightChild() == node.isRightChild()) {
+                rotate(parent, grandparent);
+                parent.flipColor();
+                grandparent.flipColor();
+                node = parent;
+            } else {    // node and parent need to be rotated before we carry on with algorithm (Black-Zig case).
+                rotate(node, parent);
+                rotate(node, grandparent);
+                node.flipColor();
+                grandparent.flipColor();
             }
+            recoloured += 2;
+            // The node now at the top of the rotated subtree is black, so it
+            // won't cause any new red property violations.
+            break;
         }
+
+        TreeStats.Counters enabled = counters;
+        if (enabled != null) {
+            enabled.repairs.increment();
+            enabled.recolourings.add(recoloured);
+            enabled.repairLevels.add(climbed);
+            enabled.maxRepairLevels.accumulate(climbed);
+        }
+        return node;
     }
 
     @Override
@@ -69,18 +118,872 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
             throw new NullPointerException();
         }
         // Instantiate a new node created from the data.
-        RBTNode<T> newNode = new RBTNode<>(data);
+        RBTNode<T> newNode = (RBTNode<T>) createNode(data, true);
         // If there is no root, then set this new node as the root.
         if (root == null) {
             // Set the new root's color to black.
             newNode.flipColor();
             root = newNode;
         } else {
-            // Basic BST insertion.
-            insertHelper(newNode, root);
-            // RBT checking for red property violations.
-            ensureRedProperty(newNode);
+            // Basic BST insertion, which links in no new node for a duplicate.
+            if (insertHelper(newNode, root)) {
+                // RBT checking for red property violations.
+                ensureRedProperty(newNode);
+            }
+        }
+    }
+
+    /**
+     * Removes the provided node, with every occurrence of its value, from
+     * the RedBlackTree.  When the node
+     * that ends up being unlinked is black, the black height of its subtree
+     * drops by one, and ensureBlackProperty repairs that.
+     * @param target the node of this tree holding the value to remove
+     */
+    @Override
+    protected void removeNode(BSTNode<T> target) {
+        RBTNode<T> node = (RBTNode<T>) target;
+        // A node with two children takes its successor's value and count, and
+        // the successor (which has at most one child) is unlinked instead.
+        if (node.getLeft() != null && node.getRight() != null) {
+            RBTNode<T> successor = (RBTNode<T>) successorInSubtree(node);
+            node.setData(successor.getData());
+            node.count = successor.count;
+            node = successor;
+        }
+
+        RBTNode<T> child = node.getLeft() != null ? node.getLeft() : node.getRight();
+        RBTNode<T> parent = node.getUp();
+        splice(node, child);
+
+        // Removing a red node never changes black heights.
+        if (node.isRed()) {
+            return;
+        }
+        // A black node with one child always has a red child, which can
+        // simply take over the removed node's black.
+        if (child != null && child.isRed()) {
+            child.flipColor();
+            return;
+        }
+        ensureBlackProperty(child, parent);
+    }
+
+    /**
+     * Repairs a black property violation where every path through the
+     * provided position has one black node fewer than the other paths
+     * through its parent (the "double black" position).  The violation is
+     * either fixed with at most three rotations, or pushed up the tree by
+     * recolouring, in which case the loop continues from the parent.
+     * @param doubleBlack the node at the double black position, or null
+     *     when that position is empty
+     * @param parent the parent of the double black position, or null when
+     *     it is the root
+     */
+    protected void ensureBlackProperty(RBTNode<T> doubleBlack, RBTNode<T> parent) {
+        RBTNode<T> node = doubleBlack;
+        while (parent != null && !isRed(node)) {
+            boolean isLeft = parent.getLeft() == node;
+            // The sibling subtree has at least one black node on each path, so it exists.
+            RBTNode<T> sibling = isLeft ? parent.getRight() : parent.getLeft();
+
+            // Red sibling: rotate it above the parent so the new sibling is black.
+            if (sibling.isRed()) {
+                rotate(sibling, parent);
+                sibling.flipColor();
+                parent.flipColor();
+                sibling = isLeft ? parent.getRight() : parent.getLeft();
+            }
+
+            RBTNode<T> nearNephew = isLeft ? sibling.getLeft() : sibling.getRight();
+            RBTNode<T> farNephew = isLeft ? sibling.getRight() : sibling.getLeft();
+
+            // Black sibling with black children: recolour and move the problem up.
+            if (!isRed(nearNephew) && !isRed(farNephew)) {
+                sibling.flipColor();
+                node = parent;
+                parent = parent.getUp();
+                continue;
+            }
+
+            // Red near nephew only: rotate it into the sibling's place so the far nephew is red.
+            if (!isRed(farNephew)) {
+                rotate(nearNephew, sibling);
+                nearNephew.flipColor();
+                sibling.flipColor();
+                farNephew = sibling;
+                sibling = nearNephew;
+            }
+
+            // Red far nephew: rotate the sibling above the parent, and it
+            // takes the parent's colour while the parent and far nephew turn black.
+            rotate(sibling, parent);
+            if (sibling.isRed() != parent.isRed()) {
+                sibling.flipColor();
+            }
+            if (parent.isRed()) {
+                parent.flipColor();
+            }
+            farNephew.flipColor();
+            return;
+        }
+
+        // A red node at the double black position (or the root) absorbs the extra black.
+        if (isRed(node)) {
+            node.flipColor();
+        }
+    }
+
+    /**
+     * @param node a node of this tree, or null
+     * @return true if node is red, false if it is black or null
+     */
+    private static boolean isRed(RBTNode<?> node) {
+        return node != null && node.isRed();
+    }
+
+    @Override
+    protected BSTNode<T> createNode(T data, boolean isRed) {
+        RBTNode<T> node = new RBTNode<>(data);
+        if (!isRed) {
+            node.flipColor();
+        }
+        return node;
+    }
+
+    @Override
+    protected boolean isRedNode(BSTNode<T> node) {
+        return ((RBTNode<T>) node).isRed();
+    }
+
+    @Override
+    protected boolean storesColours() {
+        return true;
+    }
+
+    /**
+     * Builds a RedBlackTree holding the provided values in linear time,
+     * without any comparisons between tree nodes, rotations or recolouring.
+     * The result is as balanced as possible: every level is full except the
+     * bottom one, and only the nodes on a partially filled bottom level are red.
+     * All the equal values are stored in a single node, even when values that
+     * only compare equal to them sit between them in sorted.
+     * @param sorted the values to store, in ascending order (duplicates allowed)
+     * @return a new RedBlackTree holding every value in sorted
+     * @throws NullPointerException if sorted holds a null value
+     * @throws IllegalArgumentException if sorted is not in ascending order
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(List<T> sorted)
+            throws NullPointerException, IllegalArgumentException {
+        // Check the order up front, so a bad list never leaves a half built tree.
+        T previous = null;
+        for (T value : sorted) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            if (previous != null && previous.compareTo(value) > 0) {
+                throw new IllegalArgumentException("Values must be in ascending order: " + previous + " came before " + value);
+            }
+            previous = value;
+        }
+
+        return buildBalanced(sorted, false);
+    }
+
+    /**
+     * Builds a RedBlackTree holding the provided values, which may be in any
+     * order, using every core of the common ForkJoinPool: the values are
+     * sorted with Arrays.parallelSort, and the left and right subtrees of
+     * large subtrees are built by separate tasks.  The result has the same
+     * shape as fromSorted gives for the sorted values, so all the equal
+     * values are again stored in a single node, as insert would store them.
+     * @param values the values to store, in any order (duplicates allowed)
+     * @return a new RedBlackTree holding every value in values
+     * @throws NullPointerException if values holds a null value
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> buildParallel(Collection<T> values)
+            throws NullPointerException {
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) values.toArray(Comparable<?>[]::new);
+        for (T value : sorted) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+        }
+        Arrays.parallelSort(sorted);
+        return buildBalanced(Arrays.asList(sorted), true);
+    }
+
+    /**
+     * Builds the balanced tree described for fromSorted.
+     * @param sorted the values to store, in ascending order (duplicates allowed)
+     * @param inParallel whether to build large subtrees in parallel tasks
+     * @return a new RedBlackTree holding every value in sorted
+     */
+    private static <T extends Comparable<T>> RedBlackTree<T> buildBalanced(List<T> sorted, boolean inParallel) {
+        // Collapse the equal values of each block of values that compare
+        // equal into one value and its count.  Equal values need not be
+        // next to each other within a block, so each value is checked
+        // against every distinct value of its block so far.
+        List<T> distinct = new ArrayList<>();
+        int[] counts = new int[sorted.size()];
+        int blockStart = 0;
+        for (T value : sorted) {
+            if (blockStart < distinct.size() && distinct.get(blockStart).compareTo(value) != 0) {
+                blockStart = distinct.size();
+            }
+            int match = blockStart;
+            while (match < distinct.size() && !distinct.get(match).equals(value)) {
+                match++;
+            }
+            if (match == distinct.size()) {
+                distinct.add(value);
+            }
+            counts[match]++;
+        }
+
+        int count = distinct.size();
+        // Levels 0 to fullLevels - 1 are completely filled, and any nodes
+        // on the level below them are red.
+        int fullLevels = 31 - Integer.numberOfLeadingZeros(count + 1);
+        RedBlackTree<T> tree = new RedBlackTree<>();
+        if (inParallel) {
+            tree.root = ForkJoinPool.commonPool().invoke(new SubtreeBuilder<>(distinct, counts, 0, count, 0, fullLevels));
+        } else {
+            tree.root = buildSubtree(distinct, counts, 0, count, 0, fullLevels);
+        }
+        return tree;
+    }
+
+    /**
+     * Builds a RedBlackTree from values supplied in ascending order, in
+     * linear time.  See fromSorted(List) for the shape of the result.
+     * @param sorted an iterator over the values to store in ascending order
+     * @return a new RedBlackTree holding every value from sorted
+     * @throws NullPointerException if sorted supplies a null value
+     * @throws IllegalArgumentException if sorted is not in ascending order
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> bulkLoad(Iterator<T> sorted)
+            throws NullPointerException, IllegalArgumentException {
+        // The shape depends on the number of values, so collect them first.
+        List<T> values = new ArrayList<>();
+        sorted.forEachRemaining(values::add);
+        return fromSorted(values);
+    }
+
+    /**
+     * Builds a balanced subtree from count consecutive distinct values.  The
+     * left subtree gets half of the remaining values (rounded down), so
+     * subtree node counts never differ by more than one and the null
+     * references all sit on the bottom two levels.
+     * @param values the distinct values in ascending order
+     * @param counts the number of occurrences of each value in values
+     * @param first the index in values of the subtree's smallest value
+     * @param count the number of nodes in the subtree
+     * @param depth the depth of the subtree's root within the whole tree
+     * @param redDepth the depth whose nodes are coloured red
+     * @return the root of the new subtree, or null when count is 0
+     */
+    private static <T extends Comparable<T>> RBTNode<T> buildSubtree(List<T> values, int[] counts, int first,
+            int count, int depth, int redDepth) {
+        if (count == 0) {
+            return null;
+        }
+        int leftCount = (count - 1) / 2;
+        int middle = first + leftCount;
+        RBTNode<T> left = buildSubtree(values, counts, first, leftCount, depth + 1, redDepth);
+        RBTNode<T> right = buildSubtree(values, counts, middle + 1, count - 1 - leftCount, depth + 1, redDepth);
+        return buildNode(values, counts, middle, left, right, depth, redDepth);
+    }
+
+    /**
+     * Builds the subtrees of buildSubtree in parallel: a large subtree forks
+     * a task for its left subtree and builds its right subtree itself, and a
+     * small one is built by buildSubtree on the current thread.
+     */
+    private static class SubtreeBuilder<T extends Comparable<T>> extends RecursiveTask<RBTNode<T>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> values;
+        private final int[] counts;
+        private final int first;
+        private final int count;
+        private final int depth;
+        private final int redDepth;
+
+        SubtreeBuilder(List<T> values, int[] counts, int first, int count, int depth, int redDepth) {
+            this.values = values;
+            this.counts = counts;
+            this.first = first;
+            this.count = count;
+            this.depth = depth;
+            this.redDepth = redDepth;
+        }
+
+        @Override
+        protected RBTNode<T> compute() {
+            if (count < PARALLEL_THRESHOLD) {
+                return buildSubtree(values, counts, first, count, depth, redDepth);
+            }
+            int leftCount = (count - 1) / 2;
+            int middle = first + leftCount;
+            SubtreeBuilder<T> leftTask = new SubtreeBuilder<>(values, counts, first, leftCount, depth + 1, redDepth);
+            leftTask.fork();
+            RBTNode<T> right = new SubtreeBuilder<>(values, counts, middle + 1, count - 1 - leftCount, depth + 1, redDepth)
+                .compute();
+            return buildNode(values, counts, middle, leftTask.join(), right, depth, redDepth);
+        }
+    }
+
+    /**
+     * Creates the root of a subtree built by buildSubtree, above its
+     * already built left and right subtrees.
+     * @param values the distinct values in ascending order
+     * @param counts the number of occurrences of each value in values
+     * @param middle the index in values of the root's value
+     * @param left the root's left subtree, or null
+     * @param right the root's right subtree, or null
+     * @param depth the depth of the root within the whole tree
+     * @param redDepth the depth whose nodes are coloured red
+     * @return the new root
+     */
+    private static <T extends Comparable<T>> RBTNode<T> buildNode(List<T> values, int[] counts, int middle,
+            RBTNode<T> left, RBTNode<T> right, int depth, int redDepth) {
+        RBTNode<T> node = new RBTNode<>(values.get(middle));
+        node.count = counts[middle];
+        node.size = node.count + sizeOf(left) + sizeOf(right);
+        if (depth != redDepth) {
+            node.flipColor();
+        }
+        if (left != null) {
+            node.setLeft(left);
+            left.setUp(node);
+        }
+        if (right != null) {
+            node.setRight(right);
+            right.setUp(node);
+        }
+        return node;
+    }
+
+    /**
+     * Moves every value greater than or equal to key out of this tree and
+     * into a new tree, in O(log n) time.
+     * @param key the smallest value that moves to the new tree
+     * @return a new tree of the same kind holding the values v >= key
+     * @throws NullPointerException if key is null
+     */
+    public RedBlackTree<T> split(T key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        RBTNode<T> whole = (RBTNode<T>) root;
+        root = null;
+        Split<T> parts = splitNodes(subtree(whole), key);
+        RedBlackTree<T> greater = newEmptyTree();
+        greater.root = joinPair(parts.equal, parts.greater).root;
+        root = parts.less.root;
+        return greater;
+    }
+
+    /**
+     * Moves every value of other to the end of this tree, in O(log n) time.
+     * No value of other may be smaller than the values of this tree, and
+     * other is left empty.  A value that both trees hold at the boundary
+     * between them ends up counted in one node.
+     * @param other a tree of the same class holding only values greater
+     *     than or equal to those of this tree
+     * @throws NullPointerException if other is null
+     * @throws IllegalArgumentException if other is this tree, is of another
+     *     class, or holds a value smaller than the largest value of this tree
+     */
+    public void join(RedBlackTree<T> other) throws NullPointerException, IllegalArgumentException {
+        checkOperand(other);
+        if (!isEmpty() && !other.isEmpty() && last().compareTo(other.first()) > 0) {
+            throw new IllegalArgumentException("The value " + other.first() + " is smaller than " + last());
+        }
+        RBTNode<T> left = (RBTNode<T>) root;
+        RBTNode<T> right = (RBTNode<T>) other.root;
+        root = null;
+        other.root = null;
+        if (left == null || right == null) {
+            root = left == null ? right : left;
+            return;
+        }
+        // the values of both trees that compare equal to other's smallest
+        // value are combined as in union, so that equal values share a node
+        T boundary = leftmost(right).data;
+        Split<T> mine = splitNodes(subtree(left), boundary);
+        Split<T> theirs = splitNodes(subtree(right), boundary);
+        Subtree<T> equal = combineEqual(SetOperationKind.UNION, mine.equal, theirs.equal);
+        root = joinPair(joinPair(mine.less, equal), theirs.greater).root;
+    }
+
+    /**
+     * Adds the values of other to this tree, as if each of its values were
+     * inserted, so a value occurs as often as in both trees together.  The
+     * nodes of other are moved into this tree, and other is left empty.
+     * Large trees are merged in parallel on the common ForkJoinPool.
+     * @param other a tree of the same class
+     * @throws NullPointerException if other is null
+     * @throws IllegalArgumentException if other is this tree or is of
+     *     another class
+     */
+    public void union(RedBlackTree<T> other) throws NullPointerException, IllegalArgumentException {
+        applySetOperation(SetOperationKind.UNION, other);
+    }
+
+    /**
+     * Keeps only the values of this tree that other also holds, each as
+     * often as it occurs in the tree holding it fewer times.  other is left
+     * empty.
+     * @param other a tree of the same class
+     * @throws NullPointerException if other is null
+     * @throws IllegalArgumentException if other is this tree or is of
+     *     another class
+     */
+    public void intersection(RedBlackTree<T> other) throws NullPointerException, IllegalArgumentException {
+        applySetOperation(SetOperationKind.INTERSECTION, other);
+    }
+
+    /**
+     * Removes the values of other from this tree, as if each of its values
+     * were removed, so a value occurs as often as in this tree less the
+     * number of times it occurs in other.  other is left empty.
+     * @param other a tree of the same class
+     * @throws NullPointerException if other is null
+     * @throws IllegalArgumentException if other is this tree or is of
+     *     another class
+     */
+    public void difference(RedBlackTree<T> other) throws NullPointerException, IllegalArgumentException {
+        applySetOperation(SetOperationKind.DIFFERENCE, other);
+    }
+
+    /**
+     * Creates the empty tree that split returns values in.  Subclasses whose
+     * trees need more than a constructor without arguments override this.
+     * @return a new empty tree of the same kind as this one
+     */
+    protected RedBlackTree<T> newEmptyTree() {
+        return new RedBlackTree<>();
+    }
+
+    /**
+     * Checks that other is a tree whose nodes can be moved into this tree.
+     */
+    private void checkOperand(RedBlackTree<T> other) throws NullPointerException, IllegalArgumentException {
+        if (other == null) {
+            throw new NullPointerException();
+        }
+        if (other == this) {
+            throw new IllegalArgumentException("A tree cannot be combined with itself.");
+        }
+        if (other.getClass() != getClass()) {
+            throw new IllegalArgumentException("A " + getClass().getName() + " cannot be combined with a "
+                + other.getClass().getName());
+        }
+    }
+
+    private void applySetOperation(SetOperationKind kind, RedBlackTree<T> other) {
+        checkOperand(other);
+        RBTNode<T> mine = (RBTNode<T>) root;
+        RBTNode<T> theirs = (RBTNode<T>) other.root;
+        // Both trees stay empty while their nodes are rearranged, so that
+        // rotate never mistakes a node of a detached subtree for the root.
+        root = null;
+        other.root = null;
+        root = ForkJoinPool.commonPool().invoke(new SetOperation(kind, subtree(mine), subtree(theirs))).root;
+    }
+
+    /**
+     * The set operations that SetOperation carries out.
+     */
+    private enum SetOperationKind { UNION, INTERSECTION, DIFFERENCE }
+
+    /**
+     * Combines two detached subtrees by splitting both around the root of
+     * the second, combining the matching halves in parallel, and joining
+     * the results back together with the combined values that compare
+     * equal to the root between them.  This takes O(m log(n / m + 1)) work
+     * for subtrees of m <= n values.
+     */
+    private class SetOperation extends RecursiveTask<Subtree<T>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SetOperationKind kind;
+        private final Subtree<T> mine;
+        private final Subtree<T> theirs;
+
+        SetOperation(SetOperationKind kind, Subtree<T> mine, Subtree<T> theirs) {
+            this.kind = kind;
+            this.mine = mine;
+            this.theirs = theirs;
+        }
+
+        @Override
+        protected Subtree<T> compute() {
+            if (mine.root == null || theirs.root == null) {
+                if (kind == SetOperationKind.UNION) {
+                    return mine.root == null ? theirs : mine;
+                }
+                return kind == SetOperationKind.INTERSECTION ? new Subtree<>(null, 0) : mine;
+            }
+            boolean isLarge = mine.root.size + theirs.root.size >= PARALLEL_THRESHOLD;
+            T pivot = theirs.root.data;
+            Split<T> parts = splitNodes(mine, pivot);
+            // values of other next to its root can compare equal to it too
+            Split<T> pivots = splitNodes(theirs, pivot);
+            SetOperation lessTask = new SetOperation(kind, parts.less, pivots.less);
+            SetOperation greaterTask = new SetOperation(kind, parts.greater, pivots.greater);
+
+            Subtree<T> less;
+            Subtree<T> greater;
+            if (isLarge) {
+                lessTask.fork();
+                greater = greaterTask.compute();
+                less = lessTask.join();
+            } else {
+                less = lessTask.compute();
+                greater = greaterTask.compute();
+            }
+
+            Subtree<T> equal = combineEqual(kind, parts.equal, pivots.equal);
+            if (equal.root == null) {
+                return joinPair(less, greater);
+            }
+            if (equal.root.getLeft() == null && equal.root.getRight() == null) {
+                return joinNodes(less, equal.root, greater);
+            }
+            return joinPair(joinPair(less, equal), greater);
+        }
+    }
+
+    /**
+     * Combines two detached subtrees whose values all compare equal, for a
+     * set operation.  Nodes are matched by equals, as insert matches them,
+     * so values that compare equal but are not equal are kept apart.
+     * @param kind the set operation
+     * @param mine the subtree of values of this tree, which may be empty
+     * @param theirs the subtree of values of the other tree, which may be empty
+     * @return the subtree of the combined values, each in a single node
+     */
+    private Subtree<T> combineEqual(SetOperationKind kind, Subtree<T> mine, Subtree<T> theirs) {
+        List<RBTNode<T>> unmatched = nodesOf(theirs.root);
+        List<RBTNode<T>> kept = new ArrayList<>();
+        for (RBTNode<T> node : nodesOf(mine.root)) {
+            RBTNode<T> match = null;
+            for (Iterator<RBTNode<T>> others = unmatched.iterator(); others.hasNext() && match == null; ) {
+                RBTNode<T> other = others.next();
+                if (other.data.equals(node.data)) {
+                    match = other;
+                    others.remove();
+                }
+            }
+            if (kind == SetOperationKind.UNION) {
+                node.count += match == null ? 0 : match.count;
+                kept.add(node);
+            } else if (kind == SetOperationKind.INTERSECTION) {
+                if (match != null) {
+                    node.count = Math.min(node.count, match.count);
+                    kept.add(node);
+                }
+            } else if (match == null || node.count > match.count) {
+                node.count -= match == null ? 0 : match.count;
+                kept.add(node);
+            }
+        }
+        if (kind == SetOperationKind.UNION) {
+            kept.addAll(unmatched);
+        }
+
+        Subtree<T> combined = new Subtree<>(null, 0);
+        for (RBTNode<T> node : kept) {
+            combined = joinNodes(combined, node, new Subtree<>(null, 0));
+        }
+        return combined;
+    }
+
+    /**
+     * Takes a detached subtree apart into its nodes.
+     * @param root the root of the subtree, or null
+     * @return the nodes in ascending order, each with no parent or children
+     */
+    private static <T> List<RBTNode<T>> nodesOf(RBTNode<T> root) {
+        List<RBTNode<T>> nodes = new ArrayList<>();
+        collectNodes(root, nodes);
+        for (RBTNode<T> node : nodes) {
+            node.setLeft(null);
+            node.setRight(null);
+            node.setUp(null);
+        }
+        return nodes;
+    }
+
+    private static <T> void collectNodes(RBTNode<T> node, List<RBTNode<T>> nodes) {
+        if (node != null) {
+            collectNodes(node.getLeft(), nodes);
+            nodes.add(node);
+            collectNodes(node.getRight(), nodes);
+        }
+    }
+
+    /**
+     * A detached subtree with a black root, or no subtree, and its black
+     * height.  Splits and joins pass black heights along with the subtrees,
+     * so that a join never walks down a subtree to count them.
+     */
+    private static class Subtree<T> {
+        final RBTNode<T> root;
+        final int blackHeight;
+
+        Subtree(RBTNode<T> root, int blackHeight) {
+            this.root = root;
+            this.blackHeight = blackHeight;
+        }
+    }
+
+    /**
+     * The parts of a subtree split around a value: subtrees of the values
+     * that are less, that compare equal, and that are greater.  Any of them
+     * may be empty.
+     */
+    private static class Split<T> {
+        Subtree<T> less;
+        Subtree<T> equal;
+        Subtree<T> greater;
+
+        Split(Subtree<T> less, Subtree<T> equal, Subtree<T> greater) {
+            this.less = less;
+            this.equal = equal;
+            this.greater = greater;
+        }
+    }
+
+    /**
+     * Splits a detached subtree around a value, joining the pieces cut off
+     * on the way down back into two subtrees on the way up.  Each join costs
+     * O(difference in black height) and the differences add up to the
+     * subtree's height, so this takes O(log n) time.
+     * @param tree the subtree, whose root is black
+     * @param key the value to split around
+     * @return the detached subtrees of values less than, comparing equal to,
+     *     and greater than key
+     */
+    private Split<T> splitNodes(Subtree<T> tree, Comparable<T> key) {
+        RBTNode<T> node = tree.root;
+        if (node == null) {
+            return new Split<>(tree, tree, tree);
+        }
+        Subtree<T> left = childOf(node.getLeft(), tree.blackHeight);
+        Subtree<T> right = childOf(node.getRight(), tree.blackHeight);
+        node.setLeft(null);
+        node.setRight(null);
+        node.setUp(null);
+        int cmp = key.compareTo(node.data);
+        if (cmp == 0) {
+            // when compareTo and equals disagree, other values comparing
+            // equal to key sit at the near ends of the node's subtrees
+            Subtree<T> empty = new Subtree<>(null, 0);
+            Split<T> below = new Split<>(left, empty, empty);
+            Split<T> above = new Split<>(empty, empty, right);
+            if (left.root != null && key.compareTo(lastNode(left.root).data) == 0) {
+                below = splitNodes(left, key);
+            }
+            if (right.root != null && key.compareTo(leftmost(right.root).data) == 0) {
+                above = splitNodes(right, key);
+            }
+            return new Split<>(below.less, joinNodes(below.equal, node, above.equal), above.greater);
+        }
+        if (cmp < 0) {
+            Split<T> parts = splitNodes(left, key);
+            parts.greater = joinNodes(parts.greater, node, right);
+            return parts;
+        }
+        Split<T> parts = splitNodes(right, key);
+        parts.less = joinNodes(left, node, parts.less);
+        return parts;
+    }
+
+    /**
+     * Joins two detached subtrees, where no value of the first is greater
+     * than a value of the second, by taking the largest node out of the
+     * first and joining the rest around it.
+     * @return the joined subtree, which is empty if both are
+     */
+    private Subtree<T> joinPair(Subtree<T> less, Subtree<T> greater) {
+        if (less.root == null || greater.root == null) {
+            return less.root == null ? greater : less;
+        }
+        Split<T> parts = splitLast(less);
+        return joinNodes(parts.less, parts.equal.root, greater);
+    }
+
+    /**
+     * Takes the largest node out of a detached subtree.
+     * @param tree a non-empty subtree, whose root is black
+     * @return the detached rest of the subtree as less, and the detached
+     *     largest node, on its own, as equal
+     */
+    private Split<T> splitLast(Subtree<T> tree) {
+        RBTNode<T> node = tree.root;
+        Subtree<T> left = childOf(node.getLeft(), tree.blackHeight);
+        Subtree<T> right = childOf(node.getRight(), tree.blackHeight);
+        node.setLeft(null);
+        node.setRight(null);
+        node.setUp(null);
+        if (right.root == null) {
+            return new Split<>(left, new Subtree<>(detach(node), 1), right);
+        }
+        Split<T> parts = splitLast(right);
+        parts.less = joinNodes(left, node, parts.less);
+        return parts;
+    }
+
+    /**
+     * Joins two detached subtrees with black roots and a node whose value
+     * lies between them.  When the black heights of the subtrees differ,
+     * the middle node goes in red down the spine of the taller subtree, next
+     * to a black node as high as the shorter subtree, and the red property
+     * is repaired from there, which takes O(difference in height) time.
+     * @param less the subtree of smaller values, which may be empty
+     * @param middle a detached node with no children
+     * @param greater the subtree of larger values, which may be empty
+     * @return the joined subtree, whose root is black
+     */
+    private Subtree<T> joinNodes(Subtree<T> less, RBTNode<T> middle, Subtree<T> greater) {
+        int lessHeight = less.blackHeight;
+        int greaterHeight = greater.blackHeight;
+        if (lessHeight == greaterHeight) {
+            link(middle, less.root, greater.root);
+            if (middle.isRed()) {
+                middle.flipColor();
+            }
+            refresh(middle);
+            return new Subtree<>(middle, lessHeight + 1);
+        }
+
+        if (!middle.isRed()) {
+            middle.flipColor();
+        }
+        boolean intoLess = lessHeight > greaterHeight;
+        int target = intoLess ? greaterHeight : lessHeight;
+        int height = intoLess ? lessHeight : greaterHeight;
+        RBTNode<T> parent = null;
+        RBTNode<T> node = intoLess ? less.root : greater.root;
+        // walk down the spine facing the other subtree to a black node (or
+        // null) with the other subtree's black height
+        while (node != null && (node.isRed() || height != target)) {
+            if (!node.isRed()) {
+                height--;
+            }
+            parent = node;
+            node = intoLess ? node.getRight() : node.getLeft();
+        }
+        if (intoLess) {
+            link(middle, node, greater.root);
+            parent.setRight(middle);
+        } else {
+            link(middle, less.root, node);
+            parent.setLeft(middle);
+        }
+        middle.setUp(parent);
+        for (BSTNode<T> ancestor = middle; ancestor != null; ancestor = ancestor.up) {
+            refresh(ancestor);
+        }
+
+        RBTNode<T> top = repairRedProperty(middle);
+        while (top.getUp() != null) {
+            top = top.getUp();
+        }
+        // the taller subtree's root stays on top, or is rotated down below a
+        // black node; only when the repair reaches the top and leaves it red
+        // does the black height grow
+        int joinedHeight = intoLess ? lessHeight : greaterHeight;
+        if (top.isRed()) {
+            top.flipColor();
+            joinedHeight++;
+        }
+        return new Subtree<>(top, joinedHeight);
+    }
+
+    /**
+     * Makes left and right the children of node.
+     */
+    private static <T> void link(RBTNode<T> node, RBTNode<T> left, RBTNode<T> right) {
+        node.setLeft(left);
+        node.setRight(right);
+        if (left != null) {
+            left.setUp(node);
         }
+        if (right != null) {
+            right.setUp(node);
+        }
+    }
+
+    /**
+     * Cuts a subtree loose from its parent and makes its root black, which
+     * keeps it a valid red-black tree on its own.
+     * @param node the root of the subtree, or null
+     * @return node
+     */
+    private static <T> RBTNode<T> detach(RBTNode<T> node) {
+        if (node != null) {
+            node.setUp(null);
+            if (node.isRed()) {
+                node.flipColor();
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @param node the root of a subtree, which is not null
+     * @return the node holding the subtree's largest value
+     */
+    private static <T> BSTNode<T> lastNode(BSTNode<T> node) {
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Cuts a child loose from its black parent.
+     * @param child the child, or null
+     * @param parentHeight the black height of the parent's subtree
+     * @return the detached child's subtree, with its black height
+     */
+    private static <T> Subtree<T> childOf(RBTNode<T> child, int parentHeight) {
+        // a red child becomes black, so it counts one more black node
+        int height = child != null && child.isRed() ? parentHeight : parentHeight - 1;
+        return new Subtree<>(detach(child), height);
+    }
+
+    /**
+     * @param root the black root of a valid red-black tree, or null
+     * @return the tree with its black height, which takes O(log n) time to
+     *     count, so only the whole trees that split, join and the set
+     *     operations start from are measured this way
+     */
+    private static <T> Subtree<T> subtree(RBTNode<T> root) {
+        return new Subtree<>(root, blackHeightOf(root));
+    }
+
+    /**
+     * @param node the root of a valid red-black subtree, or null
+     * @return the number of black nodes on each path from node down to a
+     *     null reference, counting node itself when it is black
+     */
+    private static int blackHeightOf(RBTNode<?> node) {
+        int height = 0;
+        for (; node != null; node = node.getLeft()) {
+            if (!node.isRed()) {
+                height++;
+            }
+        }
+        return height;
     }
 
     /**
@@ -152,4 +1055,758 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
         Assertions.assertEquals("[ 9(b), 5(r), 11(r), 2(b), 7(b), 10(b), 20(b), 1(r), 3(r), 16(r) ]", redBlackTree.root.toLevelOrderString());
     }
 
+    /**
+     * Tests that subtree sizes stay correct through the rotations performed
+     * while inserting sorted values, using the order statistic queries.
+     */
+    @Test
+    public void testRBTOrderStatistics() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        for (int i = 0; i < 100; i++) {
+            redBlackTree.insert(i);
+        }
+        Assertions.assertEquals(100, redBlackTree.size());
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(i, redBlackTree.select(i));
+            Assertions.assertEquals(i, redBlackTree.rank(i));
+        }
+        Assertions.assertEquals(11, redBlackTree.countInRange(40, 50));
+    }
+
+    /**
+     * Tests removing leaves, internal nodes and the root in an order that
+     * exercises every double black case, checking the red-black properties
+     * after each removal.
+     */
+    @Test
+    public void testRBTRemove() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        for (int i = 0; i < 200; i++) {
+            redBlackTree.insert((i * 37) % 200);
+        }
+        Assertions.assertFalse(redBlackTree.remove(500));
+        for (int i = 0; i < 200; i++) {
+            int value = (i * 53) % 200;
+            Assertions.assertTrue(redBlackTree.remove(value));
+            Assertions.assertFalse(redBlackTree.contains(value));
+            Assertions.assertEquals(199 - i, redBlackTree.size());
+            blackHeight((RBTNode<Integer>) redBlackTree.root);
+        }
+        Assertions.assertTrue(redBlackTree.isEmpty());
+    }
+
+    /**
+     * Tests removing one of several duplicate values.
+     */
+    @Test
+    public void testRBTRemoveDuplicate() {
+        RedBlackTree<String> redBlackTree = new RedBlackTree<>();
+        redBlackTree.insert("b");
+        redBlackTree.insert("a");
+        redBlackTree.insert("b");
+        redBlackTree.insert("c");
+        redBlackTree.insert("b");
+        Assertions.assertTrue(redBlackTree.remove("b"));
+        Assertions.assertTrue(redBlackTree.contains("b"));
+        Assertions.assertEquals(4, redBlackTree.size());
+        Assertions.assertEquals(2, redBlackTree.countInRange("b", "b"));
+        blackHeight((RBTNode<String>) redBlackTree.root);
+    }
+
+    /**
+     * Tests that heavily duplicated values share nodes, keeping the tree
+     * small, while size and removal still count every occurrence.
+     */
+    @Test
+    public void testRBTRunLengthDuplicates() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        for (int i = 0; i < 10000; i++) {
+            redBlackTree.insert(i % 10);
+        }
+        Assertions.assertEquals(10000, redBlackTree.size());
+        Assertions.assertEquals(10, redBlackTree.countNodes((RBTNode<Integer>) redBlackTree.root));
+        Assertions.assertEquals(1000, redBlackTree.countInRange(4, 4));
+        Assertions.assertEquals(4000, redBlackTree.rank(4));
+        Assertions.assertEquals(4, redBlackTree.select(4999));
+        blackHeight((RBTNode<Integer>) redBlackTree.root);
+
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertTrue(redBlackTree.remove(4));
+        }
+        Assertions.assertFalse(redBlackTree.contains(4));
+        Assertions.assertEquals(9, redBlackTree.countNodes((RBTNode<Integer>) redBlackTree.root));
+        Assertions.assertEquals(9000, redBlackTree.size());
+        blackHeight((RBTNode<Integer>) redBlackTree.root);
+    }
+
+    /**
+     * Tests that a snapshot restores a tree with the same shape and colours,
+     * which stays valid through further inserts and removes, and that a
+     * snapshot without colours is rejected.
+     */
+    @Test
+    public void testRBTSnapshot() throws IOException {
+        RedBlackTree<String> redBlackTree = new RedBlackTree<>();
+        for (int i = 0; i < 500; i++) {
+            redBlackTree.insert(Integer.toString((i * 37) % 300));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        redBlackTree.writeSnapshot(bytes, ElementCodec.STRING);
+        RedBlackTree<String> restored = new RedBlackTree<>();
+        restored.readSnapshot(new ByteArrayInputStream(bytes.toByteArray()), ElementCodec.STRING);
+
+        Assertions.assertEquals(redBlackTree.root.toLevelOrderString(), restored.root.toLevelOrderString());
+        Assertions.assertEquals(500, restored.size());
+        blackHeight((RBTNode<String>) restored.root);
+        for (int i = 0; i < 300; i++) {
+            restored.insert(Integer.toString(i + 1000));
+            Assertions.assertTrue(restored.remove(Integer.toString(i)));
+        }
+        blackHeight((RBTNode<String>) restored.root);
+
+        BinarySearchTree<String> plain = new BinarySearchTree<>();
+        plain.insert("a");
+        bytes.reset();
+        plain.writeSnapshot(bytes, ElementCodec.STRING);
+        Assertions.assertThrows(IOException.class,
+            () -> restored.readSnapshot(new ByteArrayInputStream(bytes.toByteArray()), ElementCodec.STRING));
+    }
+
+    /**
+     * Tests that iteration follows the sorted order through the parent
+     * references that rotations and removals update.
+     */
+    @Test
+    public void testRBTIterator() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        for (int i = 0; i < 1000; i++) {
+            redBlackTree.insert((i * 37) % 500);
+        }
+        for (int i = 0; i < 500; i += 3) {
+            Assertions.assertTrue(redBlackTree.remove(i));
+        }
+        int index = 0;
+        for (int value : redBlackTree) {
+            Assertions.assertEquals(redBlackTree.select(index++), value);
+        }
+        Assertions.assertEquals(redBlackTree.size(), index);
+    }
+
+    /**
+     * Tests that range views see only their range, including duplicates and
+     * bounds that are not in the tree, and that writes through a view are
+     * checked against its range and show in the tree.
+     */
+    @Test
+    public void testRBTRangeViews() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        for (int i = 0; i < 100; i += 2) {
+            redBlackTree.insert(i);
+        }
+        redBlackTree.insert(10);
+
+        RangeView<Integer> view = redBlackTree.subSet(9, 15);
+        List<Integer> values = new ArrayList<>();
+        view.forEach(values::add);
+        Assertions.assertEquals(List.of(10, 10, 12, 14), values);
+        Assertions.assertEquals(4, view.size());
+        Assertions.assertTrue(view.contains(12));
+        Assertions.assertFalse(view.contains(16));
+
+        values.clear();
+        redBlackTree.subSet(10, false, 14, true).forEach(values::add);
+        Assertions.assertEquals(List.of(12, 14), values);
+        values.clear();
+        redBlackTree.headSet(4).forEach(values::add);
+        Assertions.assertEquals(List.of(0, 2), values);
+        values.clear();
+        redBlackTree.tailSet(95).forEach(values::add);
+        Assertions.assertEquals(List.of(96, 98), values);
+        Assertions.assertEquals(49, redBlackTree.tailSet(2, false).size());
+        Assertions.assertTrue(redBlackTree.subSet(200, 300).isEmpty());
+        Assertions.assertTrue(redBlackTree.subSet(11, 12).isEmpty());
+
+        // writes through the view change the tree, but only inside the range
+        view.insert(13);
+        Assertions.assertTrue(redBlackTree.contains(13));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> view.insert(15));
+        Assertions.assertFalse(view.remove(16));
+        Assertions.assertTrue(redBlackTree.contains(16));
+        Assertions.assertTrue(view.remove(10));
+        Assertions.assertEquals(4, view.size());
+
+        view.clear();
+        Assertions.assertTrue(view.isEmpty());
+        Assertions.assertEquals(47, redBlackTree.size());
+        Assertions.assertTrue(redBlackTree.contains(8) && redBlackTree.contains(16));
+        Assertions.assertEquals(redBlackTree.size(), redBlackTree.countNodes((RBTNode<Integer>) redBlackTree.root));
+        blackHeight((RBTNode<Integer>) redBlackTree.root);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> redBlackTree.subSet(5, 4));
+    }
+
+    /**
+     * Tests the nearest-value queries against a brute force search over
+     * every value, after rotations and removals have reshaped the tree.
+     */
+    @Test
+    public void testRBTNavigation() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            redBlackTree.insert((i * 7919) % 1000);
+        }
+        for (int i = 0; i < 1000; i += 4) {
+            redBlackTree.remove(i);
+        }
+        redBlackTree.forEach(values::add);
+
+        for (int target = -5; target < 1005; target++) {
+            Integer floor = null;
+            Integer ceiling = null;
+            Integer lower = null;
+            Integer higher = null;
+            for (int value : values) {
+                if (value <= target) {
+                    floor = value;
+                }
+                if (value < target) {
+                    lower = value;
+                }
+                if (ceiling == null && value >= target) {
+                    ceiling = value;
+                }
+                if (higher == null && value > target) {
+                    higher = value;
+                }
+            }
+            Assertions.assertEquals(floor, redBlackTree.floor(target));
+            Assertions.assertEquals(ceiling, redBlackTree.ceiling(target));
+            Assertions.assertEquals(lower, redBlackTree.lower(target));
+            Assertions.assertEquals(higher, redBlackTree.higher(target));
+            int at = target;
+            Integer nearest = floor == null || (ceiling != null && ceiling - at < at - floor) ? ceiling : floor;
+            Assertions.assertEquals(nearest, redBlackTree.nearest(target, value -> value));
+        }
+        Assertions.assertEquals(values.get(0), redBlackTree.first());
+        Assertions.assertEquals(values.get(values.size() - 1), redBlackTree.last());
+    }
+
+    /**
+     * Tests splitting a tree at values in it, between its values and beyond
+     * either end, and joining the halves back together.
+     */
+    @Test
+    public void testRBTSplitAndJoin() {
+        for (int key = -1; key <= 301; key += 3) {
+            RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+            for (int i = 0; i < 300; i++) {
+                redBlackTree.insert((i * 7) % 300);
+            }
+            redBlackTree.insert(150);
+
+            RedBlackTree<Integer> greater = redBlackTree.split(key);
+            int smaller = Math.max(0, Math.min(key, 300));
+            Assertions.assertEquals(smaller + (key > 150 ? 1 : 0), redBlackTree.size());
+            Assertions.assertEquals(301 - redBlackTree.size(), greater.size());
+            assertValidTree(redBlackTree);
+            assertValidTree(greater);
+            if (!redBlackTree.isEmpty() && !greater.isEmpty()) {
+                Assertions.assertTrue(redBlackTree.last() < greater.first());
+            }
+
+            redBlackTree.join(greater);
+            Assertions.assertTrue(greater.isEmpty());
+            Assertions.assertEquals(301, redBlackTree.size());
+            assertValidTree(redBlackTree);
+            for (int i = 0; i < 301; i++) {
+                Assertions.assertEquals(i <= 150 ? i : i - 1, redBlackTree.select(i));
+            }
+        }
+
+        RedBlackTree<Integer> low = new RedBlackTree<>();
+        RedBlackTree<Integer> high = new RedBlackTree<>();
+        low.insert(5);
+        high.insert(3);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> low.join(high));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> low.join(low));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> low.join(new AugmentedRedBlackTree<>(
+            SubtreeAggregate.<Integer>count())));
+    }
+
+    /**
+     * A value ordered by year alone, so that different songs of the same
+     * year compare equal without being equal.
+     */
+    private static class Song implements Comparable<Song> {
+        private final int year;
+        private final String title;
+
+        Song(int year, String title) {
+            this.year = year;
+            this.title = title;
+        }
+
+        @Override
+        public int compareTo(Song other) {
+            return Integer.compare(year, other.year);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Song && ((Song) other).year == year && ((Song) other).title.equals(title);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * year + title.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return title + "(" + year + ")";
+        }
+    }
+
+    /**
+     * @return a tree holding the songs
+     */
+    private static RedBlackTree<Song> songs(Song... songs) {
+        RedBlackTree<Song> tree = new RedBlackTree<>();
+        for (Song song : songs) {
+            tree.insert(song);
+        }
+        return tree;
+    }
+
+    /**
+     * @return the songs of a tree in order, each as often as it occurs,
+     *     with the songs of one year in title order
+     */
+    private static List<String> titles(RedBlackTree<Song> tree) {
+        List<String> titles = new ArrayList<>();
+        for (Song song : tree) {
+            titles.add(song.toString());
+        }
+        titles.sort(Comparator.comparing((String title) -> title.substring(title.indexOf('('))));
+        return titles;
+    }
+
+    /**
+     * Tests split, join and the set operations on values whose compareTo
+     * and equals disagree: only equal values may share a node or have
+     * their counts combined.
+     */
+    @Test
+    public void testRBTSetOperationsKeepValuesThatOnlyCompareEqual() {
+        Song a = new Song(2000, "A");
+        Song b = new Song(2000, "B");
+        Song c = new Song(2000, "C");
+        Song d = new Song(1999, "D");
+
+        RedBlackTree<Song> tree = songs(a);
+        tree.union(songs(b));
+        Assertions.assertEquals(List.of("A(2000)", "B(2000)"), titles(tree));
+        tree = songs(a);
+        tree.intersection(songs(b));
+        Assertions.assertTrue(tree.isEmpty());
+        tree = songs(a);
+        tree.difference(songs(b));
+        Assertions.assertEquals(List.of("A(2000)"), titles(tree));
+
+        tree = songs(d, a, b, b, c);
+        tree.union(songs(c, a, d));
+        Assertions.assertEquals(List.of("D(1999)", "D(1999)", "A(2000)", "A(2000)", "B(2000)", "B(2000)",
+            "C(2000)", "C(2000)"), titles(tree));
+        Assertions.assertEquals(4, tree.countNodes((RBTNode<Song>) tree.root));
+        assertValidTree(tree);
+        tree = songs(d, a, b, b, c);
+        tree.intersection(songs(b, c, c, d));
+        Assertions.assertEquals(List.of("D(1999)", "B(2000)", "C(2000)"), titles(tree));
+        assertValidTree(tree);
+        tree = songs(d, a, b, b, c);
+        tree.difference(songs(b, c, c));
+        Assertions.assertEquals(List.of("D(1999)", "A(2000)", "B(2000)"), titles(tree));
+        assertValidTree(tree);
+
+        // many songs per year, so that songs of the split year end up on
+        // both sides of the node the split reaches first
+        tree = new RedBlackTree<>();
+        for (int i = 0; i < 300; i++) {
+            tree.insert(new Song(i % 10, "S" + i));
+        }
+        RedBlackTree<Song> later = tree.split(new Song(5, "none"));
+        Assertions.assertEquals(150, tree.size());
+        Assertions.assertEquals(150, later.size());
+        Assertions.assertTrue(tree.last().year < 5);
+        Assertions.assertEquals(5, later.first().year);
+        assertValidTree(tree);
+        assertValidTree(later);
+
+        RedBlackTree<Song> low = songs(d, a, b);
+        low.join(songs(b, a, c));
+        Assertions.assertEquals(List.of("D(1999)", "A(2000)", "A(2000)", "B(2000)", "B(2000)", "C(2000)"), titles(low));
+        Assertions.assertEquals(4, low.countNodes((RBTNode<Song>) low.root));
+        assertValidTree(low);
+    }
+
+    /**
+     * Tests joining trees whose largest and smallest values are the same,
+     * which must leave that value in a single node, and then combining the
+     * joined tree with each set operation.
+     */
+    @Test
+    public void testRBTJoinAtEqualBoundary() {
+        for (int operation = 0; operation < 4; operation++) {
+            RedBlackTree<Integer> low = new RedBlackTree<>();
+            RedBlackTree<Integer> high = new RedBlackTree<>();
+            for (int i = 0; i <= 50; i++) {
+                low.insert(i);
+                high.insert(50 + i);
+            }
+            low.insert(50);
+            low.join(high);
+            Assertions.assertTrue(high.isEmpty());
+            Assertions.assertEquals(103, low.size());
+            Assertions.assertEquals(101, low.countNodes((RBTNode<Integer>) low.root));
+            Assertions.assertEquals(50, low.select(52));
+            Assertions.assertEquals(51, low.select(53));
+            assertValidTree(low);
+
+            RedBlackTree<Integer> other = new RedBlackTree<>();
+            other.insert(50);
+            other.insert(50);
+            if (operation == 0) {
+                low.union(other);
+                Assertions.assertEquals(105, low.size());
+                Assertions.assertEquals(5, low.rankInclusive(50) - low.rank(50));
+            } else if (operation == 1) {
+                low.intersection(other);
+                Assertions.assertEquals(2, low.size());
+            } else if (operation == 2) {
+                low.difference(other);
+                Assertions.assertEquals(101, low.size());
+                Assertions.assertTrue(low.contains(50));
+            } else {
+                RedBlackTree<Integer> greater = low.split(50);
+                Assertions.assertEquals(50, low.size());
+                Assertions.assertEquals(53, greater.size());
+                Assertions.assertEquals(3, greater.rankInclusive(50));
+                Assertions.assertEquals(51, greater.countNodes((RBTNode<Integer>) greater.root));
+                assertValidTree(greater);
+            }
+            int[] nodes = { 101, 1, 101, 50 };
+            Assertions.assertEquals(nodes[operation], low.countNodes((RBTNode<Integer>) low.root));
+            assertValidTree(low);
+        }
+
+        RedBlackTree<Integer> x = new RedBlackTree<>();
+        RedBlackTree<Integer> y = new RedBlackTree<>();
+        RedBlackTree<Integer> z = new RedBlackTree<>();
+        x.insert(5);
+        y.insert(5);
+        z.insert(5);
+        z.insert(5);
+        x.join(y);
+        x.intersection(z);
+        Assertions.assertEquals(2, x.size());
+    }
+
+    /**
+     * Tests union, intersection and difference with multiset counts against
+     * counts kept in maps, on trees large enough to be combined in parallel
+     * and on trees of very different sizes.
+     */
+    @Test
+    public void testRBTSetOperations() {
+        Random random = new Random(20);
+        for (int[] sizes : new int[][] { { 40000, 30000 }, { 20000, 15 }, { 3, 5000 }, { 0, 100 } }) {
+            for (int operation = 0; operation < 3; operation++) {
+                RedBlackTree<Integer> first = new RedBlackTree<>();
+                RedBlackTree<Integer> second = new RedBlackTree<>();
+                TreeMap<Integer, Integer> firstCounts = new TreeMap<>();
+                TreeMap<Integer, Integer> secondCounts = new TreeMap<>();
+                for (int i = 0; i < sizes[0]; i++) {
+                    int value = random.nextInt(50000);
+                    first.insert(value);
+                    firstCounts.merge(value, 1, Integer::sum);
+                }
+                for (int i = 0; i < sizes[1]; i++) {
+                    int value = random.nextInt(50000);
+                    second.insert(value);
+                    secondCounts.merge(value, 1, Integer::sum);
+                }
+
+                TreeMap<Integer, Integer> expected = new TreeMap<>();
+                if (operation == 0) {
+                    first.union(second);
+                    expected.putAll(firstCounts);
+                    secondCounts.forEach((value, count) -> expected.merge(value, count, Integer::sum));
+                } else if (operation == 1) {
+                    first.intersection(second);
+                    firstCounts.forEach((value, count) -> {
+                        if (secondCounts.containsKey(value)) {
+                            expected.put(value, Math.min(count, secondCounts.get(value)));
+                        }
+                    });
+                } else {
+                    first.difference(second);
+                    firstCounts.forEach((value, count) -> {
+                        if (count > secondCounts.getOrDefault(value, 0)) {
+                            expected.put(value, count - secondCounts.getOrDefault(value, 0));
+                        }
+                    });
+                }
+
+                Assertions.assertTrue(second.isEmpty());
+                assertValidTree(first);
+                Assertions.assertEquals(expected.size(), first.countNodes((RBTNode<Integer>) first.root));
+                Iterator<Integer> values = first.iterator();
+                expected.forEach((value, count) -> {
+                    for (int i = 0; i < count; i++) {
+                        Assertions.assertEquals(value, values.next());
+                    }
+                });
+                Assertions.assertFalse(values.hasNext());
+            }
+        }
+    }
+
+    /**
+     * Asserts that a tree has a black root without a parent, and satisfies
+     * every property checked by blackHeight.
+     */
+    private static <T extends Comparable<T>> void assertValidTree(RedBlackTree<T> tree) {
+        RBTNode<T> root = (RBTNode<T>) tree.root;
+        if (root != null) {
+            Assertions.assertNull(root.getUp());
+            Assertions.assertFalse(root.isRed());
+        }
+        blackHeight(root);
+    }
+
+    /**
+     * Tests that a parallel build from unsorted values with duplicates, large
+     * enough to fork tasks, gives the tree fromSorted gives for the sorted
+     * values.
+     */
+    @Test
+    public void testRBTBuildParallel() {
+        Random random = new Random(21);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            values.add(random.nextInt(60000));
+        }
+        RedBlackTree<Integer> redBlackTree = RedBlackTree.buildParallel(values);
+        List<Integer> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        RedBlackTree<Integer> expected = RedBlackTree.fromSorted(sorted);
+
+        assertValidTree(redBlackTree);
+        Assertions.assertEquals(100000, redBlackTree.size());
+        Assertions.assertEquals(expected.root.toLevelOrderString(), redBlackTree.root.toLevelOrderString());
+        Assertions.assertEquals(expected.countNodes((RBTNode<Integer>) expected.root),
+            redBlackTree.countNodes((RBTNode<Integer>) redBlackTree.root));
+        int index = 0;
+        for (int value : redBlackTree) {
+            Assertions.assertEquals(sorted.get(index++), value);
+        }
+
+        Assertions.assertTrue(RedBlackTree.buildParallel(new ArrayList<Integer>()).isEmpty());
+        Assertions.assertThrows(NullPointerException.class, () -> RedBlackTree.buildParallel(Arrays.asList(1, null, 2)));
+    }
+
+    /**
+     * Tests that fromSorted and buildParallel give equal values one node
+     * even when a value that only compares equal sits between them, as
+     * inserting the values one by one does.
+     */
+    @Test
+    public void testRBTBuildMergesEqualValuesOfABlock() {
+        Song a = new Song(2000, "A");
+        Song b = new Song(2000, "B");
+        Song d = new Song(1999, "D");
+        List<Song> sorted = List.of(d, a, b, a, b, a);
+        RedBlackTree<Song> inserted = songs(d, a, b, a, b, a);
+        List<String> expected = List.of("D(1999)", "A(2000)", "A(2000)", "A(2000)", "B(2000)", "B(2000)");
+        Assertions.assertEquals(expected, titles(inserted));
+        Assertions.assertEquals(3, inserted.countNodes((RBTNode<Song>) inserted.root));
+
+        for (RedBlackTree<Song> built : List.of(RedBlackTree.fromSorted(sorted), RedBlackTree.buildParallel(sorted))) {
+            assertValidTree(built);
+            Assertions.assertEquals(6, built.size());
+            Assertions.assertEquals(expected, titles(built));
+            Assertions.assertEquals(3, built.countNodes((RBTNode<Song>) built.root));
+        }
+    }
+
+    /**
+     * Tests that the spliterator splits into parts of exact, roughly equal
+     * sizes that together cover every value in order, including parts split
+     * after some values were taken, and that a parallel stream sees every
+     * value.
+     */
+    @Test
+    public void testRBTSpliterator() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        for (int i = 0; i < 10000; i++) {
+            redBlackTree.insert((i * 31) % 5000);
+        }
+
+        Spliterator<Integer> second = redBlackTree.spliterator();
+        Assertions.assertTrue(second.hasCharacteristics(Spliterator.SORTED | Spliterator.SUBSIZED));
+        Spliterator<Integer> first = second.trySplit();
+        Assertions.assertEquals(10000, first.estimateSize() + second.estimateSize());
+        // the root of a red-black tree need not split it evenly, but close to it
+        Assertions.assertTrue(Math.min(first.estimateSize(), second.estimateSize()) > 10000 / 4);
+
+        List<Integer> values = new ArrayList<>();
+        // take some values before splitting again
+        for (int i = 0; i < 7; i++) {
+            Assertions.assertTrue(first.tryAdvance(values::add));
+        }
+        List<Spliterator<Integer>> parts = new ArrayList<>();
+        parts.add(first);
+        parts.add(second);
+        for (int round = 0; round < 6; round++) {
+            List<Spliterator<Integer>> split = new ArrayList<>();
+            for (Spliterator<Integer> part : parts) {
+                Spliterator<Integer> prefix = part.trySplit();
+                if (prefix != null) {
+                    split.add(prefix);
+                }
+                split.add(part);
+            }
+            parts = split;
+        }
+        Assertions.assertTrue(parts.size() > 32);
+        for (Spliterator<Integer> part : parts) {
+            long size = part.estimateSize();
+            int before = values.size();
+            part.forEachRemaining(values::add);
+            Assertions.assertEquals(size, values.size() - before);
+            Assertions.assertEquals(0, part.estimateSize());
+        }
+        Assertions.assertEquals(10000, values.size());
+        for (int i = 0; i < 10000; i++) {
+            Assertions.assertEquals(i / 2, values.get(i));
+        }
+
+        Assertions.assertEquals(2L * 4999 * 5000 / 2, redBlackTree.stream().parallel().mapToLong(value -> value).sum());
+        Assertions.assertEquals(1000, redBlackTree.stream().parallel().filter(value -> value < 500).count());
+        Assertions.assertEquals(0, new RedBlackTree<Integer>().stream().count());
+    }
+
+    /**
+     * Tests the counters on ascending inserts, which only ever rotate left,
+     * and that they stay off until enabled.
+     */
+    @Test
+    public void testRBTStats() {
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        redBlackTree.insert(-1);
+        Assertions.assertEquals(0, redBlackTree.stats().getOperations());
+
+        redBlackTree.enableStats();
+        for (int i = 0; i < 1000; i++) {
+            redBlackTree.insert(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertTrue(redBlackTree.contains(i));
+        }
+        TreeStats stats = redBlackTree.stats();
+        Assertions.assertEquals(2000, stats.getOperations());
+        Assertions.assertTrue(stats.getLeftRotations() > 0);
+        Assertions.assertEquals(0, stats.getRightRotations());
+        Assertions.assertEquals(1000, stats.getRepairs());
+        Assertions.assertTrue(stats.getRecolourings() > stats.getLeftRotations());
+        Assertions.assertTrue(stats.getMaxRepairDepth() >= 2 && stats.getMaxRepairDepth() < stats.getHeight());
+        Assertions.assertEquals(blackHeight((RBTNode<Integer>) redBlackTree.root), stats.getBlackHeight());
+        // a red-black tree is never more than twice as deep as a perfectly balanced one
+        Assertions.assertTrue(stats.getHeight() <= 2 * 10);
+        Assertions.assertTrue(stats.getComparisonsPerOperation() <= stats.getHeight());
+
+        redBlackTree.disableStats();
+        redBlackTree.insert(1000);
+        Assertions.assertEquals(0, redBlackTree.stats().getComparisons());
+    }
+
+    /**
+     * Asserts that the subtree rooted at node has no red node with a red
+     * child, has correct parent references and subtree sizes, and has the
+     * same number of black nodes on every path down to a null reference.
+     * @param node the root of the subtree to check
+     * @return the number of black nodes on each path through the subtree
+     */
+    private static <T> int blackHeight(RBTNode<T> node) {
+        if (node == null) {
+            return 0;
+        }
+        if (node.getLeft() != null) {
+            Assertions.assertSame(node, node.getLeft().getUp());
+            Assertions.assertFalse(node.isRed() && node.getLeft().isRed());
+        }
+        if (node.getRight() != null) {
+            Assertions.assertSame(node, node.getRight().getUp());
+            Assertions.assertFalse(node.isRed() && node.getRight().isRed());
+        }
+        Assertions.assertEquals(node.getCount() + sizeOf(node.getLeft()) + sizeOf(node.getRight()), node.getSize());
+        int height = blackHeight(node.getLeft());
+        Assertions.assertEquals(height, blackHeight(node.getRight()));
+        return height + (node.isRed() ? 0 : 1);
+    }
+
+    /**
+     * Tests that trees built from sorted values of every size up to 100 are
+     * valid red-black trees that only colour their partial bottom level red.
+     */
+    @Test
+    public void testRBTFromSorted() {
+        List<Integer> values = new ArrayList<>();
+        for (int count = 0; count <= 100; count++) {
+            RedBlackTree<Integer> redBlackTree = RedBlackTree.bulkLoad(values.iterator());
+            Assertions.assertEquals(count, redBlackTree.size());
+            if (count > 0) {
+                Assertions.assertFalse(((RBTNode<Integer>) redBlackTree.root).isRed());
+            }
+            int black = blackHeight((RBTNode<Integer>) redBlackTree.root);
+            // the partial level holds the values beyond the full levels
+            int red = count - ((1 << black) - 1);
+            Assertions.assertEquals(red, redBlackTree.countRed((RBTNode<Integer>) redBlackTree.root));
+            for (int i = 0; i < count; i++) {
+                Assertions.assertEquals(i, redBlackTree.select(i));
+            }
+            values.add(count);
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RedBlackTree.fromSorted(List.of("b", "a")));
+        RedBlackTree<String> duplicates = RedBlackTree.fromSorted(List.of("a", "b", "b", "b", "c"));
+        Assertions.assertEquals(3, duplicates.countInRange("b", "b"));
+        Assertions.assertEquals(3, duplicates.countNodes((RBTNode<String>) duplicates.root));
+        duplicates.insert("b");
+        Assertions.assertTrue(duplicates.remove("a"));
+        blackHeight((RBTNode<String>) duplicates.root);
+    }
+
+    /**
+     * @param node the root of the subtree to count in
+     * @return the number of nodes in the subtree
+     */
+    private int countNodes(RBTNode<T> node) {
+        if (node == null) {
+            return 0;
+        }
+        return 1 + countNodes(node.getLeft()) + countNodes(node.getRight());
+    }
+
+    /**
+     * @param node the root of the subtree to count in
+     * @return the number of red nodes in the subtree
+     */
+    private int countRed(RBTNode<T> node) {
+        if (node == null) {
+            return 0;
+        }
+        return (node.isRed() ? 1 : 0) + countRed(node.getLeft()) + countRed(node.getRight());
+    }
+
 }
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures how the throughput of a mixed insert/contains workload
+ * scales with the number of threads, for a ConcurrentSkipListCollection and
+ * for a RedBlackTree guarded by one global lock.  Each thread runs 20%
+ * inserts and 80% contains on random keys for a fixed time.  Run with an
+ * optional argument for the largest number of threads (default: the number
+ * of available processors).
+ */
+public class SkipListScalingBenchmark {
+
+    // how long each measurement runs, in milliseconds
+    private static final long DURATION_MILLIS = 1000;
+    // the range of the random keys
+    private static final int KEY_RANGE = 1000000;
+    // the number of keys inserted before measuring
+    private static final int PRELOAD = 100000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ConcurrentSkipListCollection<Integer> skipList = new ConcurrentSkipListCollection<>();
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (int i = 0; i < PRELOAD; i++) {
+                int key = ThreadLocalRandom.current().nextInt(KEY_RANGE);
+                skipList.insert(key);
+                tree.insert(key);
+            }
+
+            double skipListRate = measure(threads, key -> skipList.insert(key), key -> skipList.contains(key));
+            double lockedRate = measure(threads,
+                key -> { synchronized (tree) { tree.insert(key); } },
+                key -> { synchronized (tree) { return tree.contains(key); } });
+            System.out.printf("%2d threads: ConcurrentSkipListCollection %6.2f Mops/s   locked RedBlackTree %6.2f Mops/s%n",
+                threads, skipListRate / 1e6, lockedRate / 1e6);
+        }
+    }
+
+    /**
+     * An operation that inserts a key.
+     */
+    private interface Insert {
+        void run(int key);
+    }
+
+    /**
+     * An operation that searches for a key.
+     */
+    private interface Contains {
+        boolean run(int key);
+    }
+
+    /**
+     * Runs the workload on the provided number of threads for DURATION_MILLIS.
+     * @param threads the number of threads
+     * @param insert the insert operation
+     * @param contains the contains operation
+     * @return the total number of operations completed per second
+     */
+    private static double measure(int threads, Insert insert, Contains contains) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        long deadline = System.nanoTime() + DURATION_MILLIS * 1000000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                // check the clock every 256 operations to keep its cost out of the loop
+                while ((count & 255) != 0 || System.nanoTime() < deadline) {
+                    int key = random.nextInt(KEY_RANGE);
+                    if (random.nextInt(5) == 0) {
+                        insert.run(key);
+                    } else {
+                        contains.run(key);
+                    }
+                    count++;
+                }
+                operations.add(count);
+            }));
+        }
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+}
@@ -20,6 +20,15 @@ public interface SortedCollection<T extends Comparable<T>> {
      */
     public boolean contains(Comparable<T> data);
 
+    /**
+     * Removes one occurrence of data from the sorted collection.
+     * @param data the value being removed
+     * @return true if a value was removed, and false if the collection did
+     * not contain data
+     * @throws NullPointerException if data argument is null
+     */
+    public boolean remove(T data) throws NullPointerException;
+
     /**
      * Counts the number of values in the collection, with each duplicate value
      * being counted separately within the value returned.
@@ -0,0 +1,347 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * This class times every workload of the SortedCollection implementations
+ * of the BinarySearchTree hierarchy, next to a java.util.TreeMap baseline:
+ * inserts of random, sorted and duplicate-heavy values, contains that hit
+ * and miss, size() and a full iteration, each at several sizes.  Each
+ * measurement is warmed up first, and then reports the time per operation
+ * of the fastest round, the bytes allocated per operation by the measuring
+ * thread, and the garbage collections while the measured rounds ran their
+ * operations, leaving out the collections built to set them up.  Run with
+ * optional arguments for the sizes to measure (default 1000 10000 100000).
+ */
+public class SortedCollectionBenchmark {
+
+    // the number of untimed rounds before each measurement
+    private static final int WARMUP_ROUNDS = 3;
+    // the number of timed rounds of each measurement
+    private static final int MEASURED_ROUNDS = 5;
+    // the plain BST and BSTRotation degenerate into a list on sorted input,
+    // so every insert walks the whole list; skip larger sorted sizes
+    private static final int DEGENERATE_LIMIT = 20000;
+
+    /**
+     * The TreeMap baseline as a SortedCollection, keeping a count per value
+     * so that it stores duplicates like the trees do.
+     */
+    private static class TreeMapCollection implements SortedCollection<Integer>, Iterable<Integer> {
+
+        private final TreeMap<Integer, Integer> counts = new TreeMap<>();
+        private int size = 0;
+
+        @Override
+        public void insert(Integer data) throws NullPointerException {
+            counts.merge(data, 1, Integer::sum);
+            size++;
+        }
+
+        @Override
+        public boolean contains(Comparable<Integer> data) {
+            return counts.containsKey(data);
+        }
+
+        @Override
+        public boolean remove(Integer data) throws NullPointerException {
+            Integer count = counts.get(data);
+            if (count == null) {
+                return false;
+            }
+            if (count == 1) {
+                counts.remove(data);
+            } else {
+                counts.put(data, count - 1);
+            }
+            size--;
+            return true;
+        }
+
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public boolean isEmpty() { return size == 0; }
+
+        @Override
+        public void clear() {
+            counts.clear();
+            size = 0;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            Iterator<Map.Entry<Integer, Integer>> entries = counts.entrySet().iterator();
+            return new Iterator<Integer>() {
+                private Map.Entry<Integer, Integer> entry;
+                private int returned;
+
+                @Override
+                public boolean hasNext() {
+                    return (entry != null && returned < entry.getValue()) || entries.hasNext();
+                }
+
+                @Override
+                public Integer next() {
+                    if (entry == null || returned == entry.getValue()) {
+                        entry = entries.next();
+                        returned = 0;
+                    }
+                    returned++;
+                    return entry.getKey();
+                }
+            };
+        }
+    }
+
+    /**
+     * A collection to measure, which must also be Iterable.
+     */
+    private static class Subject {
+        final String name;
+        final Supplier<SortedCollection<Integer>> factory;
+        final boolean degeneratesOnSortedInput;
+
+        Subject(String name, Supplier<SortedCollection<Integer>> factory, boolean degeneratesOnSortedInput) {
+            this.name = name;
+            this.factory = factory;
+            this.degeneratesOnSortedInput = degeneratesOnSortedInput;
+        }
+    }
+
+    /**
+     * A workload: sets up a collection untimed, then runs one operation per
+     * key on it timed, returning a checksum so the work cannot be optimized
+     * away.
+     */
+    private interface Workload {
+        SortedCollection<Integer> setUp(Subject subject, int[] keys);
+
+        long run(SortedCollection<Integer> collection, int[] keys);
+    }
+
+    // the sum of every checksum, printed at the end so that it is used
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int[] sizes = { 1000, 10000, 100000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        List<Subject> subjects = List.of(
+            new Subject("BinarySearchTree", BinarySearchTree::new, true),
+            new Subject("BSTRotation", BSTRotation::new, true),
+            new Subject("RedBlackTree", RedBlackTree::new, false),
+            new Subject("TreeMap baseline", TreeMapCollection::new, false));
+
+        System.out.printf("%-18s %-18s %8s %12s %12s %8s %10s%n",
+            "workload", "collection", "size", "ns/op", "bytes/op", "gc count", "gc ms");
+        for (int size : sizes) {
+            int[] randomKeys = randomKeys(size, 4 * size);
+            int[] sortedKeys = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedKeys[i] = i;
+            }
+            int[] duplicateKeys = randomKeys(size, Math.max(1, size / 100));
+            // the lookup workloads insert random even keys, and look for them
+            // or for the odd keys next to them
+            int[] evenKeys = randomKeys(size, 2 * size);
+            for (int i = 0; i < size; i++) {
+                evenKeys[i] &= ~1;
+            }
+
+            for (Subject subject : subjects) {
+                measure("insert random", subject, INSERT, randomKeys);
+                if (!subject.degeneratesOnSortedInput || size <= DEGENERATE_LIMIT) {
+                    measure("insert sorted", subject, INSERT, sortedKeys);
+                }
+                measure("insert duplicates", subject, INSERT, duplicateKeys);
+                measure("contains hit", subject, containing(0), evenKeys);
+                measure("contains miss", subject, containing(1), evenKeys);
+                measure("size", subject, SIZE, evenKeys);
+                measure("iterate", subject, ITERATE, evenKeys);
+            }
+        }
+        System.out.println("checksum " + blackhole);
+    }
+
+    /**
+     * Inserts the keys into an empty collection.
+     */
+    private static final Workload INSERT = new Workload() {
+        @Override
+        public SortedCollection<Integer> setUp(Subject subject, int[] keys) {
+            return subject.factory.get();
+        }
+
+        @Override
+        public long run(SortedCollection<Integer> collection, int[] keys) {
+            for (int key : keys) {
+                collection.insert(key);
+            }
+            return collection.size();
+        }
+    };
+
+    /**
+     * Calls size() once per key on a collection holding the keys.
+     */
+    private static final Workload SIZE = new Workload() {
+        @Override
+        public SortedCollection<Integer> setUp(Subject subject, int[] keys) {
+            return filled(subject, keys);
+        }
+
+        @Override
+        public long run(SortedCollection<Integer> collection, int[] keys) {
+            long total = 0;
+            for (int i = 0; i < keys.length; i++) {
+                total += collection.size();
+            }
+            return total;
+        }
+    };
+
+    /**
+     * Iterates once over a collection holding the keys.
+     */
+    private static final Workload ITERATE = new Workload() {
+        @Override
+        public SortedCollection<Integer> setUp(Subject subject, int[] keys) {
+            return filled(subject, keys);
+        }
+
+        @Override
+        public long run(SortedCollection<Integer> collection, int[] keys) {
+            long sum = 0;
+            // every subject is Iterable; a cast to Iterable<?> is checked
+            for (Object value : (Iterable<?>) collection) {
+                sum += (Integer) value;
+            }
+            return sum;
+        }
+    };
+
+    /**
+     * @param offset added to each key before looking it up
+     * @return a workload looking up each key, plus offset, in a collection
+     * holding the keys
+     */
+    private static Workload containing(int offset) {
+        return new Workload() {
+            @Override
+            public SortedCollection<Integer> setUp(Subject subject, int[] keys) {
+                return filled(subject, keys);
+            }
+
+            @Override
+            public long run(SortedCollection<Integer> collection, int[] keys) {
+                long found = 0;
+                for (int key : keys) {
+                    if (collection.contains(key + offset)) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        };
+    }
+
+    /**
+     * @return a new collection holding the keys
+     */
+    private static SortedCollection<Integer> filled(Subject subject, int[] keys) {
+        SortedCollection<Integer> collection = subject.factory.get();
+        for (int key : keys) {
+            collection.insert(key);
+        }
+        return collection;
+    }
+
+    /**
+     * Warms up and measures a workload, and prints the results.
+     * @param name the name of the workload to print
+     * @param subject the collection to measure
+     * @param workload the workload to run
+     * @param keys the keys of the workload, one per operation
+     */
+    private static void measure(String name, Subject subject, Workload workload, int[] keys) {
+        int size = keys.length;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            blackhole += workload.run(workload.setUp(subject, keys), keys);
+        }
+
+        // setUp builds a whole collection for most workloads, so its garbage
+        // collections are left out by reading the counters around run only
+        long fastest = Long.MAX_VALUE;
+        long allocated = 0;
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            SortedCollection<Integer> collection = workload.setUp(subject, keys);
+            long collections = gcCount();
+            long millis = gcMillis();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            blackhole += workload.run(collection, keys);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+            allocated += allocatedBytes() - bytes;
+            gcCount += gcCount() - collections;
+            gcMillis += gcMillis() - millis;
+        }
+
+        System.out.printf("%-18s %-18s %8d %12.1f %12.1f %8d %10d%n", name, subject.name, size,
+            (double) fastest / size, (double) allocated / MEASURED_ROUNDS / size, gcCount, gcMillis);
+    }
+
+    /**
+     * @return size random keys from 0 up to but not including range
+     */
+    private static int[] randomKeys(int size, int range) {
+        Random random = new Random(24);
+        int[] keys = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = random.nextInt(range);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or 0 when
+     * the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * This class times inserting pre-sorted values into the trees of the
+ * BinarySearchTree hierarchy, and reports how many call frames an insert and
+ * a contains use once the tree is large.  Run with an optional argument for
+ * the number of values to insert into the balanced trees (default 1,000,000).
+ */
+public class SortedInsertBenchmark {
+
+    // the plain BST degenerates into a list on sorted input, so every insert
+    // walks the whole list; keep it small enough to finish in a few seconds
+    private static final int DEGENERATE_SIZE = 30000;
+
+    /**
+     * A key that records the depth of the call stack whenever it is compared,
+     * so we can see how many frames a tree operation needs.
+     */
+    private static class FrameProbe implements Comparable<FrameProbe> {
+        // when true, comparisons record the current stack depth
+        static boolean probing = false;
+        // deepest stack seen by a comparison while probing
+        static int maxFrames = 0;
+
+        private final int value;
+
+        FrameProbe(int value) { this.value = value; }
+
+        @Override
+        public int compareTo(FrameProbe other) {
+            if (probing) {
+                maxFrames = Math.max(maxFrames, Thread.currentThread().getStackTrace().length);
+            }
+            return Integer.compare(this.value, other.value);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof FrameProbe && ((FrameProbe) other).value == this.value;
+        }
+
+        @Override
+        public int hashCode() { return this.value; }
+
+        @Override
+        public String toString() { return Integer.toString(this.value); }
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        run("BinarySearchTree", new BinarySearchTree<>(), DEGENERATE_SIZE);
+        run("BSTRotation", new BSTRotation<>(), DEGENERATE_SIZE);
+        run("RedBlackTree", new RedBlackTree<>(), size);
+    }
+
+    /**
+     * Inserts size sorted values into the tree, then probes one insert and
+     * one contains to report the deepest call stack either of them reached.
+     * @param name the name of the tree type to print
+     * @param tree the empty tree to fill
+     * @param size the number of values to insert
+     */
+    private static void run(String name, SortedCollection<FrameProbe> tree, int size) {
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < size; i++) {
+                tree.insert(new FrameProbe(i));
+            }
+        } catch (StackOverflowError e) {
+            System.out.println(name + ": StackOverflowError after " + tree.size() + " sorted inserts");
+            return;
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        // measure the frames used relative to a comparison made directly from here
+        FrameProbe.probing = true;
+        FrameProbe.maxFrames = 0;
+        new FrameProbe(0).compareTo(new FrameProbe(1));
+        int baseline = FrameProbe.maxFrames;
+        FrameProbe.maxFrames = 0;
+        tree.insert(new FrameProbe(size));
+        tree.contains(new FrameProbe(size / 2));
+        FrameProbe.probing = false;
+
+        System.out.println(name + ": " + size + " sorted inserts in " + millis + " ms, size() = "
+            + tree.size() + ", extra call frames per insert/contains = "
+            + (FrameProbe.maxFrames - baseline));
+    }
+
+}
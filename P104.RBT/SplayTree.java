@@ -0,0 +1,260 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class is a self-adjusting binary search tree: every insert, contains
+ * and remove splays the node it reached to the root with BSTRotation.rotate,
+ * so values that were used recently sit near the top of the tree.  A run of
+ * m operations takes O((m + n) log n) time in total, and when a small set of
+ * values gets most of the lookups, as with skewed query traffic, those values
+ * stay within a few levels of the root.  Iterating does not splay.
+ *
+ * Since lookups change the shape of the tree, a SplayTree must not be read
+ * by several threads at once.
+ */
+public class SplayTree<T extends Comparable<T>> extends BSTRotation<T> implements IterableSortedCollection<T> {
+
+    // the smallest value iteration starts at, or null for no lower bound
+    private Comparable<T> iteratorMin = null;
+    // the largest value iteration stops at, or null for no upper bound
+    private Comparable<T> iteratorMax = null;
+
+    /**
+     * Inserts a value, which ends up at the root.  The search for the value
+     * splays the node it reached to the root, so a new node only needs to
+     * take the root's place, with the old root as one of its children.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data is null
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        BSTNode<T> existing = lookup(root, data);
+        if (existing != null) {
+            // lookup splayed the value's node to the root
+            existing.count++;
+            refresh(existing);
+            return;
+        }
+
+        BSTNode<T> newNode = createNode(data, false);
+        BSTNode<T> oldRoot = root;
+        if (oldRoot != null) {
+            // the old root is the closest value the search reached, so its
+            // subtree on the far side of data stays with it
+            if (data.compareTo(oldRoot.data) < 0) {
+                newNode.setLeft(oldRoot.left);
+                newNode.setRight(oldRoot);
+                oldRoot.setLeft(null);
+            } else {
+                newNode.setRight(oldRoot.right);
+                newNode.setLeft(oldRoot);
+                oldRoot.setRight(null);
+            }
+            if (newNode.left != null) {
+                newNode.left.setUp(newNode);
+            }
+            if (newNode.right != null) {
+                newNode.right.setUp(newNode);
+            }
+            refresh(oldRoot);
+        }
+        refresh(newNode);
+        root = newNode;
+    }
+
+    /**
+     * Searches for a value like BinarySearchTree.lookup, then splays the
+     * node holding it, or the last node visited when it is missing, to the
+     * root.  contains and remove both search through this.
+     * @param node the root of the subtree to search, which is always the
+     *     root of the tree
+     * @param data the value we are searching for
+     * @return the node holding the value, now the root, or null if the value
+     *     is not in the tree
+     */
+    @Override
+    protected BSTNode<T> lookup(BSTNode<T> node, Comparable<T> data) {
+        BSTNode<T> current = node;
+        BSTNode<T> last = null;
+        int comparisons = 0;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            comparisons++;
+            if (cmp == 0 && current.data.equals(data)) {
+                break;
+            }
+            last = current;
+            current = cmp < 0 ? current.left : current.right;
+        }
+        countOperation(comparisons);
+        BSTNode<T> reached = current != null ? current : last;
+        if (reached != null) {
+            splay(reached);
+        }
+        return current;
+    }
+
+    /**
+     * Moves a node to the root with zig, zig-zig and zig-zag steps.  A
+     * zig-zig step rotates the parent before the node, which is what roughly
+     * halves the depth of every node on the path and makes the splay tree's
+     * amortized bounds hold.
+     * @param node the node to move to the root
+     */
+    protected void splay(BSTNode<T> node) {
+        while (node.up != null) {
+            BSTNode<T> parent = node.up;
+            BSTNode<T> grandparent = parent.up;
+            if (grandparent == null) {
+                // zig: the parent is the root
+                rotate(node, parent);
+            } else if ((grandparent.left == parent) == (parent.left == node)) {
+                // zig-zig: node and parent are children on the same side
+                rotate(parent, grandparent);
+                rotate(node, parent);
+            } else {
+                // zig-zag: node and parent are children on opposite sides
+                rotate(node, parent);
+                rotate(node, grandparent);
+            }
+        }
+    }
+
+    @Override
+    public void setIteratorMin(Comparable<T> min) {
+        this.iteratorMin = min;
+    }
+
+    @Override
+    public void setIteratorMax(Comparable<T> max) {
+        this.iteratorMax = max;
+    }
+
+    /**
+     * Returns an iterator over the values between the iterator bounds
+     * (inclusive) in ascending order, each duplicate as many times as it
+     * occurs.  The iterator does not splay, but the tree must not be changed,
+     * or searched with contains, while it is in use.
+     * @return an iterator over the values between the bounds
+     */
+    @Override
+    public Iterator<T> iterator() {
+        BSTNode<T> first = iteratorMin == null ? leftmost(root) : ceilingNode(iteratorMin, true);
+        return ascendingIterator(first, iteratorMax, true);
+    }
+
+    /**
+     * Tests random inserts, removes and lookups, including duplicates,
+     * against a RedBlackTree, checking that every search leaves the node it
+     * reached at the root with correct parent references and sizes.
+     */
+    @Test
+    public void testMatchesRedBlackTree() {
+        SplayTree<Integer> tree = new SplayTree<>();
+        RedBlackTree<Integer> expected = new RedBlackTree<>();
+        Random random = new Random(25);
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(2000);
+            int operation = random.nextInt(4);
+            if (operation == 0) {
+                Assertions.assertEquals(expected.remove(value), tree.remove(value));
+            } else if (operation == 1) {
+                boolean found = expected.contains(value);
+                Assertions.assertEquals(found, tree.contains(value));
+                if (found) {
+                    Assertions.assertEquals(value, tree.root.data);
+                }
+            } else {
+                expected.insert(value);
+                tree.insert(value);
+                Assertions.assertEquals(value, tree.root.data);
+            }
+        }
+        Assertions.assertEquals(expected.size(), tree.size());
+        assertLinked(tree.root);
+        Iterator<Integer> values = expected.iterator();
+        for (int value : tree) {
+            Assertions.assertEquals(values.next(), value);
+        }
+        Assertions.assertFalse(values.hasNext());
+    }
+
+    /**
+     * Tests that repeated lookups of a few hot values keep them near the
+     * root of a large tree, and that a sorted run of inserts, which leaves
+     * the tree a path, is repaired by splaying its deepest node.
+     */
+    @Test
+    public void testHotValuesStayNearRoot() {
+        SplayTree<Integer> tree = new SplayTree<>();
+        for (int i = 0; i < 10000; i++) {
+            tree.insert(i);
+        }
+        Assertions.assertEquals(10000, tree.height());
+        // splaying the deepest node of a path roughly halves its depth
+        Assertions.assertTrue(tree.contains(0));
+        Assertions.assertTrue(tree.height() <= 5002);
+
+        for (int round = 0; round < 10; round++) {
+            for (int hot = 5000; hot < 5004; hot++) {
+                Assertions.assertTrue(tree.contains(hot));
+            }
+        }
+        tree.enableStats();
+        for (int hot = 5000; hot < 5004; hot++) {
+            tree.contains(hot);
+        }
+        Assertions.assertTrue(tree.stats().getComparisonsPerOperation() <= 4);
+        assertLinked(tree.root);
+    }
+
+    /**
+     * Tests iterating between bounds, which may or may not be in the tree.
+     */
+    @Test
+    public void testIteratorBounds() {
+        SplayTree<String> tree = new SplayTree<>();
+        for (String value : new String[] { "d", "b", "c", "b", "a", "e", "g" }) {
+            tree.insert(value);
+        }
+        tree.setIteratorMin("b");
+        tree.setIteratorMax("f");
+        List<String> values = new ArrayList<>();
+        tree.forEach(values::add);
+        Assertions.assertEquals(List.of("b", "b", "c", "d", "e"), values);
+
+        tree.setIteratorMin("bb");
+        tree.setIteratorMax(null);
+        values.clear();
+        tree.forEach(values::add);
+        Assertions.assertEquals(List.of("c", "d", "e", "g"), values);
+        Assertions.assertThrows(NullPointerException.class, () -> tree.insert(null));
+    }
+
+    /**
+     * Asserts that every node of a subtree is linked to its parent and
+     * stores the size of its subtree.
+     */
+    private static <T> int assertLinked(BSTNode<T> node) {
+        if (node == null) {
+            return 0;
+        }
+        if (node.left != null) {
+            Assertions.assertSame(node, node.left.up);
+        }
+        if (node.right != null) {
+            Assertions.assertSame(node, node.right.up);
+        }
+        int size = node.getCount() + assertLinked(node.left) + assertLinked(node.right);
+        Assertions.assertEquals(size, node.size);
+        return size;
+    }
+
+}
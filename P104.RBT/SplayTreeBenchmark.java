@@ -0,0 +1,153 @@
+import java.util.Random;
+
+/**
+ * This class compares contains on a SplayTree with contains on a
+ * RedBlackTree holding the same values, for lookup traces whose keys follow
+ * a Zipf distribution: the k-th most popular key is looked up with
+ * probability proportional to 1 / k^s, so a few keys get most of the
+ * lookups, as with popular songs.  A uniform trace is measured as well,
+ * where the splay tree has no hot set to keep near the root.  Each trace
+ * reports the time and the comparisons per lookup, taken from the trees'
+ * TreeStats counters.  Run with optional arguments for the number of values
+ * (default 100000) and the number of lookups per trace (default 1000000).
+ */
+public class SplayTreeBenchmark {
+
+    // the number of untimed passes over each trace before it is measured
+    private static final int WARMUP_ROUNDS = 3;
+    // the number of timed passes over each trace, keeping the fastest
+    private static final int MEASURED_ROUNDS = 5;
+    // the Zipf exponents of the skewed traces; larger is more skewed
+    private static final double[] EXPONENTS = { 0.8, 0.99, 1.2 };
+
+    // the sum of every lookup result, printed at the end so that it is used
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        Random random = new Random(25);
+
+        // the values are 0 to size - 1, inserted in random order, and the
+        // popularity ranks are spread over them by another random order, so
+        // that the hot keys are not next to each other in the tree
+        int[] values = shuffled(size, random);
+        int[] byRank = shuffled(size, random);
+        SplayTree<Integer> splayTree = new SplayTree<>();
+        RedBlackTree<Integer> redBlackTree = new RedBlackTree<>();
+        for (int value : values) {
+            splayTree.insert(value);
+            redBlackTree.insert(value);
+        }
+
+        System.out.printf("%-12s %-14s %10s %14s%n", "trace", "tree", "ns/op", "comparisons/op");
+        int[] uniform = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            uniform[i] = random.nextInt(size);
+        }
+        measure("uniform", uniform, splayTree, redBlackTree);
+        for (double exponent : EXPONENTS) {
+            int[] trace = zipfTrace(size, lookups, exponent, byRank, random);
+            measure(String.format("zipf s=%.2f", exponent), trace, splayTree, redBlackTree);
+        }
+        System.out.println("checksum " + blackhole);
+    }
+
+    /**
+     * Measures one trace on both trees and prints the results.
+     */
+    private static void measure(String name, int[] trace, SplayTree<Integer> splayTree,
+            RedBlackTree<Integer> redBlackTree) {
+        measure(name, "SplayTree", splayTree, trace);
+        measure(name, "RedBlackTree", redBlackTree, trace);
+    }
+
+    private static void measure(String name, String treeName, BinarySearchTree<Integer> tree, int[] trace) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            blackhole += lookUp(tree, trace);
+        }
+        long fastest = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            blackhole += lookUp(tree, trace);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        // count comparisons in a separate pass, so the counters do not slow
+        // down the timed ones
+        tree.enableStats();
+        blackhole += lookUp(tree, trace);
+        double comparisons = tree.stats().getComparisonsPerOperation();
+        tree.disableStats();
+
+        System.out.printf("%-12s %-14s %10.1f %14.2f%n", name, treeName,
+            (double) fastest / trace.length, comparisons);
+    }
+
+    /**
+     * @return the number of keys of the trace found in the tree
+     */
+    private static long lookUp(BinarySearchTree<Integer> tree, int[] trace) {
+        long found = 0;
+        for (int key : trace) {
+            if (tree.contains(key)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Draws keys by inverting the Zipf cumulative distribution: the rank of
+     * a key is the first rank whose cumulative probability reaches a uniform
+     * random number, found by binary search.
+     * @param size the number of keys
+     * @param lookups the length of the trace
+     * @param exponent the Zipf exponent s
+     * @param byRank the key of each rank, most popular first
+     * @return the keys of the trace
+     */
+    private static int[] zipfTrace(int size, int lookups, double exponent, int[] byRank, Random random) {
+        double[] cumulative = new double[size];
+        double total = 0;
+        for (int rank = 0; rank < size; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+
+        int[] trace = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            double target = random.nextDouble() * total;
+            int low = 0;
+            int high = size - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            trace[i] = byRank[low];
+        }
+        return trace;
+    }
+
+    /**
+     * @return the numbers 0 to size - 1 in random order
+     */
+    private static int[] shuffled(int size, Random random) {
+        int[] numbers = new int[size];
+        for (int i = 0; i < size; i++) {
+            numbers[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = numbers[i];
+            numbers[i] = numbers[j];
+            numbers[j] = swap;
+        }
+        return numbers;
+    }
+
+}
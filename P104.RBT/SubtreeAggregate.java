@@ -0,0 +1,115 @@
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * This interface describes a summary of a group of values that can be
+ * built up from the summaries of its parts, such as their sum, maximum or
+ * number.  An AugmentedRedBlackTree stores the summary of every subtree in
+ * the subtree's root, so that it can answer range queries from O(log n)
+ * of them.  combine must be associative and identity must leave any summary
+ * unchanged when combined with it; combine need not be commutative, since
+ * it is always given the summaries of smaller values on the left.
+ * @param <T> the type of the values summarized
+ * @param <A> the type of the summaries
+ */
+public interface SubtreeAggregate<T, A> {
+
+    /**
+     * @return the summary of no values at all
+     */
+    A identity();
+
+    /**
+     * @param value a value
+     * @param count the number of times the value occurs, at least 1
+     * @return the summary of count occurrences of value
+     */
+    A of(T value, int count);
+
+    /**
+     * @param left the summary of a group of values
+     * @param right the summary of a group of values that follow those of left
+     * @return the summary of both groups together
+     */
+    A combine(A left, A right);
+
+    /**
+     * @return an aggregate counting the values, including duplicates
+     */
+    static <T> SubtreeAggregate<T, Integer> count() {
+        return new SubtreeAggregate<>() {
+            @Override
+            public Integer identity() { return 0; }
+
+            @Override
+            public Integer of(T value, int count) { return count; }
+
+            @Override
+            public Integer combine(Integer left, Integer right) { return left + right; }
+        };
+    }
+
+    /**
+     * @param key gives the number each value adds to the sum
+     * @return an aggregate summing key over the values, including duplicates
+     */
+    static <T> SubtreeAggregate<T, Long> sum(ToLongFunction<? super T> key) {
+        return new SubtreeAggregate<>() {
+            @Override
+            public Long identity() { return 0L; }
+
+            @Override
+            public Long of(T value, int count) { return key.applyAsLong(value) * count; }
+
+            @Override
+            public Long combine(Long left, Long right) { return left + right; }
+        };
+    }
+
+    /**
+     * @param key gives the attribute of each value to take the maximum of
+     * @return an aggregate giving the largest key of the values, or null for
+     * no values
+     */
+    static <T, K extends Comparable<K>> SubtreeAggregate<T, K> max(Function<? super T, K> key) {
+        return new SubtreeAggregate<>() {
+            @Override
+            public K identity() { return null; }
+
+            @Override
+            public K of(T value, int count) { return key.apply(value); }
+
+            @Override
+            public K combine(K left, K right) {
+                if (left == null) {
+                    return right;
+                }
+                return right == null || left.compareTo(right) >= 0 ? left : right;
+            }
+        };
+    }
+
+    /**
+     * @param key gives the attribute of each value to take the minimum of
+     * @return an aggregate giving the smallest key of the values, or null for
+     * no values
+     */
+    static <T, K extends Comparable<K>> SubtreeAggregate<T, K> min(Function<? super T, K> key) {
+        return new SubtreeAggregate<>() {
+            @Override
+            public K identity() { return null; }
+
+            @Override
+            public K of(T value, int count) { return key.apply(value); }
+
+            @Override
+            public K combine(K left, K right) {
+                if (left == null) {
+                    return right;
+                }
+                return right == null || left.compareTo(right) <= 0 ? left : right;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,112 @@
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * This class is a Spliterator over the values of a BinarySearchTree (or
+ * RedBlackTree) in ascending order, so that the values can be streamed in
+ * parallel.  It covers a stretch of the in-order sequence, from the node it
+ * is at to the node it stops before, and splits at subtree roots: the first
+ * split hands the left subtree of the root to a new spliterator and keeps
+ * the root and its right subtree, the next splits do the same one level
+ * lower, and so on.  In a balanced tree the two parts are close to the same
+ * size, and the subtree sizes the nodes keep make the size of each part
+ * exact.  The tree must not be changed while the spliterator is in use.
+ */
+public class TreeSpliterator<T extends Comparable<T>> implements Spliterator<T> {
+
+    // the node holding the next value, or fence at the end
+    private BSTNode<T> current;
+    // the number of occurrences of current's value already returned
+    private int returned;
+    // the node after the last value covered, or null to run to the end
+    private final BSTNode<T> fence;
+    // the subtree whose largest value is the last value covered and whose
+    // root is the next place to split, or null when no split is left
+    private BSTNode<T> splitAt;
+    // the exact number of values not yet returned
+    private long remaining;
+
+    /**
+     * Creates a spliterator over every value of a tree.
+     * @param root the root of the tree, or null for an empty tree
+     */
+    TreeSpliterator(BSTNode<T> root) {
+        this(BinarySearchTree.leftmost(root), 0, null, root, root == null ? 0 : root.size);
+    }
+
+    private TreeSpliterator(BSTNode<T> current, int returned, BSTNode<T> fence, BSTNode<T> splitAt, long remaining) {
+        this.current = current;
+        this.returned = returned;
+        this.fence = fence;
+        this.splitAt = splitAt;
+        this.remaining = remaining;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (current == fence) {
+            return false;
+        }
+        T value = current.data;
+        if (++returned == current.count) {
+            current = BinarySearchTree.successor(current);
+            returned = 0;
+        }
+        remaining--;
+        action.accept(value);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        while (tryAdvance(action)) {
+            // each call passes on one value
+        }
+    }
+
+    /**
+     * Hands the values before the root of splitAt to a new spliterator,
+     * keeping that root and its right subtree.  Roots that are not after the
+     * current value are skipped by moving to their right subtrees.
+     * @return a spliterator over the first part of the values, or null when
+     * there is no root left to split at
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        BSTNode<T> split = splitAt;
+        while (split != null && current != fence && current.data.compareTo(split.data) >= 0) {
+            split = split.right;
+        }
+        if (split == null || current == fence) {
+            splitAt = null;
+            return null;
+        }
+        long kept = split.count + BinarySearchTree.sizeOf(split.right);
+        TreeSpliterator<T> prefix = new TreeSpliterator<>(current, returned, split, split.left, remaining - kept);
+        current = split;
+        returned = 0;
+        splitAt = split.right;
+        remaining = kept;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+    }
+
+    /**
+     * @return null, since the values are in their natural order
+     */
+    @Override
+    public Comparator<? super T> getComparator() {
+        return null;
+    }
+
+}
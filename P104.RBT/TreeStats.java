@@ -0,0 +1,141 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a snapshot of the counters a BinarySearchTree (or one of its
+ * subclasses) keeps once enableStats has been called: how many operations
+ * searched the tree and how many comparisons they made, how many rotations
+ * rotate did in each direction, and how many nodes ensureRedProperty
+ * recoloured and how far up the tree its repairs went.  It also records the
+ * height and black height of the tree when the snapshot was taken.
+ */
+public final class TreeStats {
+
+    /**
+     * The live counters of a tree.  Each is a LongAdder, which spreads its
+     * updates over cells picked per thread, so threads that search the same
+     * tree at once do not contend for a single counter.
+     */
+    static final class Counters {
+        // the number of inserts, lookups and removes
+        final LongAdder operations = new LongAdder();
+        // the number of values compared by those operations
+        final LongAdder comparisons = new LongAdder();
+        final LongAdder leftRotations = new LongAdder();
+        final LongAdder rightRotations = new LongAdder();
+        // the number of colour flips made by ensureRedProperty
+        final LongAdder recolourings = new LongAdder();
+        // the number of calls to ensureRedProperty, and the total and
+        // largest number of levels their repairs climbed
+        final LongAdder repairs = new LongAdder();
+        final LongAdder repairLevels = new LongAdder();
+        final LongAccumulator maxRepairLevels = new LongAccumulator(Math::max, 0);
+    }
+
+    private final long operations;
+    private final long comparisons;
+    private final long leftRotations;
+    private final long rightRotations;
+    private final long recolourings;
+    private final long repairs;
+    private final long repairLevels;
+    private final long maxRepairLevels;
+    private final int height;
+    private final int blackHeight;
+
+    /**
+     * Takes a snapshot of a tree's counters.
+     * @param counters the counters, or null when they are not enabled
+     * @param height the number of nodes on the longest path from the root
+     * @param blackHeight the number of black nodes on each path from the
+     *     root, or -1 for a tree without colours
+     */
+    TreeStats(Counters counters, int height, int blackHeight) {
+        if (counters == null) {
+            counters = new Counters();
+        }
+        this.operations = counters.operations.sum();
+        this.comparisons = counters.comparisons.sum();
+        this.leftRotations = counters.leftRotations.sum();
+        this.rightRotations = counters.rightRotations.sum();
+        this.recolourings = counters.recolourings.sum();
+        this.repairs = counters.repairs.sum();
+        this.repairLevels = counters.repairLevels.sum();
+        this.maxRepairLevels = counters.maxRepairLevels.get();
+        this.height = height;
+        this.blackHeight = blackHeight;
+    }
+
+    /**
+     * @return the number of inserts and lookups counted, where contains and
+     * remove each make one lookup
+     */
+    public long getOperations() { return operations; }
+
+    /**
+     * @return the number of comparisons those operations made
+     */
+    public long getComparisons() { return comparisons; }
+
+    /**
+     * @return the average number of comparisons per operation, or 0 when
+     * no operations were counted
+     */
+    public double getComparisonsPerOperation() {
+        return operations == 0 ? 0 : (double) comparisons / operations;
+    }
+
+    /**
+     * @return the number of left rotations (a right child moving up)
+     */
+    public long getLeftRotations() { return leftRotations; }
+
+    /**
+     * @return the number of right rotations (a left child moving up)
+     */
+    public long getRightRotations() { return rightRotations; }
+
+    /**
+     * @return the number of nodes recoloured while repairing inserts
+     */
+    public long getRecolourings() { return recolourings; }
+
+    /**
+     * @return the number of inserts that needed the red property checked
+     */
+    public long getRepairs() { return repairs; }
+
+    /**
+     * @return the average number of levels a red property repair moved up
+     * the tree, or 0 when there were no repairs
+     */
+    public double getAverageRepairDepth() {
+        return repairs == 0 ? 0 : (double) repairLevels / repairs;
+    }
+
+    /**
+     * @return the largest number of levels a single repair moved up
+     */
+    public long getMaxRepairDepth() { return maxRepairLevels; }
+
+    /**
+     * @return the number of nodes on the longest path from the root when
+     * the snapshot was taken, 0 for an empty tree
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * @return the number of black nodes on every path from the root when
+     * the snapshot was taken, or -1 for a tree without colours
+     */
+    public int getBlackHeight() { return blackHeight; }
+
+    @Override
+    public String toString() {
+        return String.format("operations=%d comparisons/op=%.2f rotations=%d left + %d right recolourings=%d "
+            + "repairs=%d avg depth=%.2f max depth=%d height=%d black height=%d",
+            operations, getComparisonsPerOperation(), leftRotations, rightRotations, recolourings,
+            repairs, getAverageRepairDepth(), maxRepairLevels, height, blackHeight);
+    }
+
+}
@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class walks the nodes of a binary tree of BSTNodes in in-order,
+ * pre-order or level-order, calling a visitor for each node.  It keeps the
+ * nodes still to be visited in an array that it reuses from one traversal
+ * to the next, so a TreeTraversal that is kept around does not allocate at
+ * all once its array has grown to fit the tree.  The in-order and pre-order
+ * traversals hold O(height) nodes at a time; the level-order traversal
+ * holds up to one level of the tree.
+ *
+ * A TreeTraversal is not thread-safe, and a visitor must not start another
+ * traversal with the same TreeTraversal.
+ */
+public class TreeTraversal<T> {
+
+    /**
+     * Receives the nodes of a traversal.
+     * @param <E> the type of exception the visitor may throw, which the
+     *     traversal passes on
+     */
+    public interface Visitor<T, E extends Exception> {
+        /**
+         * @param node the next node of the traversal
+         */
+        void visit(BSTNode<T> node) throws E;
+    }
+
+    // the nodes still to be visited: a stack for in-order and pre-order,
+    // and a circular queue for level-order
+    @SuppressWarnings("unchecked")
+    private BSTNode<T>[] pending = (BSTNode<T>[]) new BSTNode<?>[16];
+    // whether the next value appended needs a separator before it
+    private boolean needsSeparator;
+
+    /**
+     * Visits the nodes of a tree in ascending order.
+     * @param root the root of the tree, or null for an empty tree
+     * @param visitor receives each node
+     * @throws E if the visitor throws it, which ends the traversal
+     */
+    public <E extends Exception> void inOrder(BSTNode<T> root, Visitor<T, E> visitor) throws E {
+        int top = 0;
+        try {
+            BSTNode<T> node = root;
+            while (node != null || top > 0) {
+                // stack the path down to the smallest node not yet visited
+                for (; node != null; node = node.getLeft()) {
+                    push(top++, node);
+                }
+                node = pending[--top];
+                pending[top] = null;
+                visitor.visit(node);
+                node = node.getRight();
+            }
+        } finally {
+            Arrays.fill(pending, 0, top, null);
+        }
+    }
+
+    /**
+     * Visits the nodes of a tree with every node before its children, and
+     * all of a left subtree before the right subtree.
+     * @param root the root of the tree, or null for an empty tree
+     * @param visitor receives each node
+     * @throws E if the visitor throws it, which ends the traversal
+     */
+    public <E extends Exception> void preOrder(BSTNode<T> root, Visitor<T, E> visitor) throws E {
+        int top = 0;
+        try {
+            if (root != null) {
+                push(top++, root);
+            }
+            while (top > 0) {
+                BSTNode<T> node = pending[--top];
+                pending[top] = null;
+                visitor.visit(node);
+                if (node.getRight() != null) {
+                    push(top++, node.getRight());
+                }
+                if (node.getLeft() != null) {
+                    push(top++, node.getLeft());
+                }
+            }
+        } finally {
+            Arrays.fill(pending, 0, top, null);
+        }
+    }
+
+    /**
+     * Visits the nodes of a tree level by level from the root, and from
+     * left to right within each level.
+     * @param root the root of the tree, or null for an empty tree
+     * @param visitor receives each node
+     * @throws E if the visitor throws it, which ends the traversal
+     */
+    public <E extends Exception> void levelOrder(BSTNode<T> root, Visitor<T, E> visitor) throws E {
+        // the queue holds count nodes starting at index head, wrapping around
+        int head = 0;
+        int count = 0;
+        try {
+            if (root != null) {
+                pending[0] = root;
+                count = 1;
+            }
+            while (count > 0) {
+                BSTNode<T> node = pending[head];
+                pending[head] = null;
+                head = (head + 1) % pending.length;
+                count--;
+                visitor.visit(node);
+                if (node.getLeft() != null) {
+                    head = enqueue(head, count++, node.getLeft());
+                }
+                if (node.getRight() != null) {
+                    head = enqueue(head, count++, node.getRight());
+                }
+            }
+        } finally {
+            Arrays.fill(pending, null);
+        }
+    }
+
+    /**
+     * Appends the values of a tree in ascending order to out, in the format
+     * of BSTNode.toInOrderString: "[ a, b, c ]", with a value that occurs
+     * several times appended once per occurrence.
+     * @param root the root of the tree, or null for an empty tree
+     * @param out where to append the values
+     * @throws IOException if out throws it
+     */
+    public void appendInOrder(BSTNode<T> root, Appendable out) throws IOException {
+        out.append("[ ");
+        needsSeparator = false;
+        inOrder(root, node -> {
+            for (int i = 0; i < node.getCount(); i++) {
+                appendNode(node, out);
+            }
+        });
+        out.append(needsSeparator ? " ]" : "]");
+    }
+
+    /**
+     * Appends the nodes of a tree in level-order to out, in the format of
+     * BSTNode.toLevelOrderString: "[ b, a, c ]", one entry per node.
+     * @param root the root of the tree, or null for an empty tree
+     * @param out where to append the nodes
+     * @throws IOException if out throws it
+     */
+    public void appendLevelOrder(BSTNode<T> root, Appendable out) throws IOException {
+        out.append("[ ");
+        needsSeparator = false;
+        levelOrder(root, node -> appendNode(node, out));
+        out.append(needsSeparator ? " ]" : "]");
+    }
+
+    private void appendNode(BSTNode<T> node, Appendable out) throws IOException {
+        if (needsSeparator) {
+            out.append(", ");
+        }
+        out.append(node.toString());
+        needsSeparator = true;
+    }
+
+    /**
+     * Stores a node on the stack, growing the array when it is full.
+     */
+    private void push(int index, BSTNode<T> node) {
+        if (index == pending.length) {
+            pending = Arrays.copyOf(pending, index * 2);
+        }
+        pending[index] = node;
+    }
+
+    /**
+     * Adds a node to the end of the queue, growing the array when it is full.
+     * @param head the index of the first node in the queue
+     * @param count the number of nodes in the queue
+     * @param node the node to add
+     * @return the index of the first node in the queue afterwards
+     */
+    private int enqueue(int head, int count, BSTNode<T> node) {
+        if (count == pending.length) {
+            // unwrap the queue into a larger array, starting at index 0
+            @SuppressWarnings("unchecked")
+            BSTNode<T>[] larger = (BSTNode<T>[]) new BSTNode<?>[count * 2];
+            for (int i = 0; i < count; i++) {
+                larger[i] = pending[(head + i) % count];
+            }
+            pending = larger;
+            head = 0;
+        }
+        pending[(head + count) % pending.length] = node;
+        return head;
+    }
+
+    /**
+     * Tests the three orders on a complete tree large enough to grow the
+     * level-order queue while it wraps around, reusing one traversal.
+     */
+    @Test
+    public void testTraversalOrders() {
+        List<Integer> sorted = new ArrayList<>();
+        for (int i = 0; i < 127; i++) {
+            sorted.add(i);
+        }
+        RedBlackTree<Integer> tree = RedBlackTree.fromSorted(sorted);
+        TreeTraversal<Integer> traversal = new TreeTraversal<>();
+
+        List<Integer> visited = new ArrayList<>();
+        traversal.inOrder(tree.root, node -> visited.add(node.getData()));
+        Assertions.assertEquals(sorted, visited);
+
+        visited.clear();
+        traversal.preOrder(tree.root, node -> visited.add(node.getData()));
+        Assertions.assertEquals(List.of(63, 31, 15, 7, 3, 1, 0, 2, 5, 4, 6, 11), visited.subList(0, 12));
+
+        visited.clear();
+        traversal.levelOrder(tree.root, node -> visited.add(node.getData()));
+        Assertions.assertEquals(List.of(63, 31, 95, 15, 47, 79, 111, 7), visited.subList(0, 8));
+        Assertions.assertEquals(List.of(0, 2, 4), visited.subList(63, 66));
+        Assertions.assertEquals(127, visited.size());
+
+        visited.clear();
+        traversal.levelOrder(null, node -> visited.add(node.getData()));
+        Assertions.assertTrue(visited.isEmpty());
+    }
+
+    /**
+     * Tests appending a degenerate tree, far deeper than the call stack,
+     * in the formats of the BSTNode string methods.
+     */
+    @Test
+    public void testAppendDegenerateTree() throws IOException {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        StringBuilder expected = new StringBuilder("[ ");
+        for (int i = 0; i < 50000; i++) {
+            tree.insert(i);
+            expected.append(i).append(i < 49999 ? ", " : " ]");
+        }
+        tree.insert(0);
+        expected.insert(2, "0, ");
+
+        TreeTraversal<Integer> traversal = new TreeTraversal<>();
+        StringBuilder out = new StringBuilder();
+        traversal.appendInOrder(tree.root, out);
+        Assertions.assertEquals(expected.toString(), out.toString());
+        Assertions.assertEquals(expected.toString(), tree.root.toInOrderString());
+
+        // a degenerate tree has one node per level, so level-order is in-order without duplicates
+        out.setLength(0);
+        traversal.appendLevelOrder(tree.root, out);
+        Assertions.assertEquals(expected.substring(0, 2) + expected.substring(5), out.toString());
+
+        out.setLength(0);
+        traversal.appendInOrder(null, out);
+        Assertions.assertEquals("[ ]", out.toString());
+    }
+
+}